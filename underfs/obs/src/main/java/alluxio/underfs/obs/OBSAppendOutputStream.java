@@ -0,0 +1,207 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import com.google.common.base.Preconditions;
+import com.obs.services.ObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.AppendObjectRequest;
+import com.obs.services.model.AppendObjectResult;
+import org.apache.commons.httpclient.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A stream for writing a file into OBS as an appendable object. The data is buffered in memory
+ * and appended to the object whenever the buffer is full, when {@link #flush()} is called, and
+ * when the stream is closed. Flushed data is visible to readers, and the local buffering is
+ * bounded by the buffer size.
+ *
+ * Every append names the position it expects to write at, so an append that is retried after it
+ * succeeded is rejected by OBS instead of writing the data twice. When an append is rejected
+ * because the object is not at the expected position, its length tells whether the append was
+ * applied and only its response was lost: if the object ends where the append would have ended,
+ * the append is complete, otherwise the stream fails. The first append replaces an object which
+ * existed before the stream wrote to it, and concurrent writers to the same key are not
+ * supported.
+ */
+@NotThreadSafe
+public final class OBSAppendOutputStream extends OutputStream {
+  private static final Logger LOG = LoggerFactory.getLogger(OBSAppendOutputStream.class);
+
+  /** Bucket name of the Huawei OBS bucket. */
+  private final String mBucketName;
+  /** Key of the file in OBS. */
+  private final String mKey;
+  /** The OBS client. */
+  private final ObsClient mObsClient;
+  /** Retries the requests that failed with a transient error. */
+  private final OBSRetryHandler mRetryHandler;
+
+  /** The data written since the last append. */
+  private final byte[] mBuffer;
+  /** The number of bytes in the buffer. */
+  private int mBufferBytes;
+  /** The position of the next append, which is the size of the object. */
+  private long mPosition;
+  /** The number of attempts of the current append. */
+  private int mAttempts;
+
+  /** Flag to indicate this stream has been closed, to ensure close is only done once. */
+  private AtomicBoolean mClosed = new AtomicBoolean(false);
+
+  /**
+   * Creates a new instance of {@link OBSAppendOutputStream}.
+   *
+   * @param bucketName the name of the bucket
+   * @param key the key of the file
+   * @param client the OBS client
+   * @param bufferSize the number of bytes buffered before they are appended
+   * @param retryHandler retries the requests that failed with a transient error
+   */
+  public OBSAppendOutputStream(String bucketName, String key, ObsClient client, int bufferSize,
+      OBSRetryHandler retryHandler) {
+    Preconditions.checkArgument(bucketName != null && !bucketName.isEmpty(),
+        "Bucket name must not be null or empty.");
+    Preconditions.checkArgument(key != null && !key.isEmpty(),
+        "OBS object key must not be null or empty.");
+    Preconditions.checkArgument(client != null, "ObsClient must not be null.");
+    Preconditions.checkArgument(bufferSize > 0, "Buffer size must be positive.");
+    mBucketName = bucketName;
+    mKey = key;
+    mObsClient = client;
+    mRetryHandler = retryHandler;
+    mBuffer = new byte[bufferSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (mBufferBytes == mBuffer.length) {
+      append();
+    }
+    mBuffer[mBufferBytes++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (mBufferBytes == mBuffer.length) {
+        append();
+      }
+      int toWrite = Math.min(len, mBuffer.length - mBufferBytes);
+      System.arraycopy(b, off, mBuffer, mBufferBytes, toWrite);
+      mBufferBytes += toWrite;
+      off += toWrite;
+      len -= toWrite;
+    }
+  }
+
+  /**
+   * Appends the buffered data to the object, making it visible to readers.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (mBufferBytes > 0) {
+      append();
+    }
+  }
+
+  /**
+   * Appends the remaining data to the object. An empty object is created if nothing was written.
+   */
+  @Override
+  public void close() throws IOException {
+    if (mClosed.getAndSet(true)) {
+      LOG.warn("OBSAppendOutputStream is already closed");
+      return;
+    }
+    if (mBufferBytes > 0 || mPosition == 0) {
+      append();
+    }
+  }
+
+  /**
+   * Appends the buffer to the object. The first append replaces an existing object of the same
+   * key.
+   */
+  private void append() throws IOException {
+    try {
+      try {
+        mPosition = appendBuffer();
+      } catch (ObsException e) {
+        if (e.getResponseCode() != HttpStatus.SC_CONFLICT) {
+          throw e;
+        }
+        mPosition = resolveConflict(e);
+      }
+    } catch (ObsException e) {
+      LOG.error("Failed to append {} bytes to {} at position {}", mBufferBytes, mKey, mPosition);
+      throw new IOException(e);
+    }
+    mBufferBytes = 0;
+  }
+
+  /**
+   * Resolves an append rejected because the object is not at the expected position.
+   *
+   * @param conflict the error of the rejected append
+   * @return the position of the next append
+   */
+  private long resolveConflict(ObsException conflict) throws IOException {
+    long expectedLength = mPosition + mBufferBytes;
+    if (mPosition == 0 && mAttempts == 1) {
+      // No earlier attempt of ours may have created the object, so it existed before the stream
+      LOG.debug("Replacing existing object {} in bucket {}", mKey, mBucketName);
+      mRetryHandler.retry("deleteObject", () -> mObsClient.deleteObject(mBucketName, mKey));
+      return appendBuffer();
+    }
+    long length = mRetryHandler.retry("getObjectMetadata",
+        () -> mObsClient.getObjectMetadata(mBucketName, mKey)).getContentLength();
+    if (length == expectedLength) {
+      // The append was applied, but its response was lost
+      LOG.debug("Append of {} bytes to {} at position {} was already applied", mBufferBytes,
+          mKey, mPosition);
+      return expectedLength;
+    }
+    throw new IOException(String.format("Object %s has length %d while %d bytes were appended "
+        + "to it, it was modified by another writer", mKey, length, expectedLength), conflict);
+  }
+
+  /**
+   * @return the position of the next append
+   */
+  private long appendBuffer() {
+    mAttempts = 0;
+    AppendObjectResult result = mRetryHandler.retry("appendObject", mBufferBytes, () -> {
+      mAttempts++;
+      AppendObjectRequest request = new AppendObjectRequest();
+      request.setBucketName(mBucketName);
+      request.setObjectKey(mKey);
+      request.setPosition(mPosition);
+      request.setInput(new ByteArrayInputStream(mBuffer, 0, mBufferBytes));
+      return mObsClient.appendObject(request);
+    });
+    return result.getNextPosition();
+  }
+}
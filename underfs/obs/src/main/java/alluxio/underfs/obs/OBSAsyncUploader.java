@@ -0,0 +1,214 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Uploads the objects of closed {@link OBSOutputStream}s in the background, so writers do not
+ * wait for the upload of every file they close. The bytes of the queued and running uploads are
+ * bounded by a budget: a writer closing a stream while the budget is used up waits for earlier
+ * uploads to finish.
+ *
+ * A failed upload is logged and reported by the next {@link #awaitPendingUploads()}, which is the
+ * point at which the objects of all streams closed before it are durable. It is also reported
+ * once by {@link #checkFailures()}, so a writer learns that data was lost without waiting for the
+ * pending uploads, and is then cleared rather than failing every later writer.
+ *
+ * The keys of the queued and running uploads are tracked, so an operation on a key can wait for
+ * its upload with {@link #awaitUpload(String)} instead of finding the object missing or stale.
+ */
+@ThreadSafe
+final class OBSAsyncUploader {
+  private static final Logger LOG = LoggerFactory.getLogger(OBSAsyncUploader.class);
+
+  /**
+   * An upload run in the background.
+   */
+  @FunctionalInterface
+  interface Upload {
+    /**
+     * Uploads the object.
+     */
+    void run() throws IOException;
+  }
+
+  /** The executor running the uploads. */
+  private final ExecutorService mExecutor;
+  /** The maximum number of bytes of the queued and running uploads. */
+  private final long mMaxBytes;
+  /** Called with the key of every finished upload, whether it succeeded or not. */
+  private final Consumer<String> mOnUploaded;
+
+  /** The number of bytes of the queued and running uploads. */
+  @GuardedBy("this")
+  private long mPendingBytes;
+  /** The number of queued and running uploads. */
+  @GuardedBy("this")
+  private int mPendingUploads;
+  /** The number of queued and running uploads by key. */
+  @GuardedBy("this")
+  private final Map<String, Integer> mPendingKeys = new HashMap<>();
+  /** The keys of the uploads which failed since the last {@link #awaitPendingUploads()}. */
+  @GuardedBy("this")
+  private final List<String> mFailedKeys = new ArrayList<>();
+  /** The keys of the failed uploads not reported by {@link #checkFailures()} yet. */
+  @GuardedBy("this")
+  private final List<String> mUnreportedKeys = new ArrayList<>();
+
+  /**
+   * Creates a new instance of {@link OBSAsyncUploader}.
+   *
+   * @param executor the executor running the uploads
+   * @param maxBytes the maximum number of bytes of the queued and running uploads
+   * @param onUploaded called with the key of every finished upload
+   */
+  OBSAsyncUploader(ExecutorService executor, long maxBytes, Consumer<String> onUploaded) {
+    Preconditions.checkArgument(maxBytes > 0, "Upload budget must be positive.");
+    mExecutor = executor;
+    mMaxBytes = maxBytes;
+    mOnUploaded = onUploaded;
+  }
+
+  /**
+   * Queues an upload, waiting for earlier uploads to finish while the budget is used up. An
+   * upload larger than the budget waits for all earlier uploads to finish.
+   *
+   * @param key the key of the object
+   * @param bytes the size of the object
+   * @param upload the upload
+   * @throws IOException if the wait was interrupted
+   */
+  void submit(String key, long bytes, Upload upload) throws IOException {
+    long charge = Math.min(bytes, mMaxBytes);
+    synchronized (this) {
+      try {
+        while (mPendingUploads > 0 && mPendingBytes + charge > mMaxBytes) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+      mPendingBytes += charge;
+      mPendingUploads++;
+      mPendingKeys.merge(key, 1, Integer::sum);
+    }
+    try {
+      mExecutor.submit(() -> run(key, charge, upload));
+    } catch (RejectedExecutionException e) {
+      finish(key, charge, false);
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Reports the uploads which failed and were not reported by this method yet, without waiting
+   * for the pending uploads. The failures are still reported by the next
+   * {@link #awaitPendingUploads()}.
+   *
+   * @throws IOException if an upload failed since the last call
+   */
+  void checkFailures() throws IOException {
+    List<String> failedKeys;
+    synchronized (this) {
+      if (mUnreportedKeys.isEmpty()) {
+        return;
+      }
+      failedKeys = new ArrayList<>(mUnreportedKeys);
+      mUnreportedKeys.clear();
+    }
+    throw new IOException(String.format("Failed to upload %d objects in the background: %s",
+        failedKeys.size(), failedKeys));
+  }
+
+  /**
+   * Waits for the queued and running uploads of a key to finish.
+   *
+   * @param key the key of the object
+   * @throws IOException if the wait was interrupted
+   */
+  synchronized void awaitUpload(String key) throws IOException {
+    try {
+      while (mPendingKeys.containsKey(key)) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Waits for all queued and running uploads to finish, and acknowledges the failed uploads.
+   *
+   * @throws IOException if an upload failed since the last call, or the wait was interrupted
+   */
+  void awaitPendingUploads() throws IOException {
+    List<String> failedKeys;
+    synchronized (this) {
+      try {
+        while (mPendingUploads > 0) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+      failedKeys = new ArrayList<>(mFailedKeys);
+      mFailedKeys.clear();
+      mUnreportedKeys.clear();
+    }
+    if (!failedKeys.isEmpty()) {
+      throw new IOException(String.format("Failed to upload %d objects in the background: %s",
+          failedKeys.size(), failedKeys));
+    }
+  }
+
+  private void run(String key, long charge, Upload upload) {
+    boolean failed = true;
+    try {
+      upload.run();
+      failed = false;
+    } catch (IOException | RuntimeException e) {
+      LOG.error("Failed to upload {} in the background", key, e);
+    } finally {
+      mOnUploaded.accept(key);
+      finish(key, charge, failed);
+    }
+  }
+
+  private synchronized void finish(String key, long charge, boolean failed) {
+    mPendingBytes -= charge;
+    mPendingUploads--;
+    mPendingKeys.computeIfPresent(key, (k, uploads) -> uploads == 1 ? null : uploads - 1);
+    if (failed) {
+      mFailedKeys.add(key);
+      mUnreportedKeys.add(key);
+    }
+    notifyAll();
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A bounded pool of equally sized buffers, used by {@link OBSOutputStream} to hold small objects
+ * in memory instead of staging them on disk. Once all buffers are in use, writers stage their
+ * data on disk instead of waiting.
+ */
+@ThreadSafe
+final class OBSBufferPool {
+  /** The size of a buffer. */
+  private final int mBufferSize;
+  /** The maximum number of buffers allocated by this pool. */
+  private final int mMaxBuffers;
+  /** The number of buffers allocated by this pool. */
+  private final AtomicInteger mAllocated = new AtomicInteger();
+  /** The buffers which are not in use. */
+  private final Queue<byte[]> mFree = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Creates a new instance of {@link OBSBufferPool}.
+   *
+   * @param bufferSize the size of a buffer
+   * @param maxBuffers the maximum number of buffers allocated by this pool
+   */
+  OBSBufferPool(int bufferSize, int maxBuffers) {
+    Preconditions.checkArgument(bufferSize > 0, "Buffer size must be positive.");
+    mBufferSize = bufferSize;
+    mMaxBuffers = maxBuffers;
+  }
+
+  /**
+   * @return a buffer, or null if all buffers are in use
+   */
+  byte[] acquire() {
+    byte[] buffer = mFree.poll();
+    if (buffer != null) {
+      return buffer;
+    }
+    if (mAllocated.incrementAndGet() > mMaxBuffers) {
+      mAllocated.decrementAndGet();
+      return null;
+    }
+    return new byte[mBufferSize];
+  }
+
+  /**
+   * Returns a buffer to the pool.
+   *
+   * @param buffer a buffer acquired from this pool
+   */
+  void release(byte[] buffer) {
+    mFree.offer(buffer);
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import alluxio.conf.PropertyKey;
+import alluxio.underfs.UnderFileSystemConfiguration;
+
+import com.google.common.collect.ImmutableList;
+import com.obs.services.ObsClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Shares {@link ObsClient}s, and their connection pools, between the OBS mounts of a process.
+ *
+ * Mounts with the same endpoint, credentials and client settings get the same client. A client
+ * is closed when the last mount using it releases it, so the connections of a worker are bounded
+ * by the distinct client configurations rather than by the number of mounts.
+ */
+@ThreadSafe
+final class OBSClientRegistry {
+  private static final Logger LOG = LoggerFactory.getLogger(OBSClientRegistry.class);
+
+  /** The registry shared by all OBS mounts. */
+  private static final OBSClientRegistry INSTANCE = new OBSClientRegistry();
+
+  /** The properties which configure a client, in addition to the endpoint and credentials. */
+  private static final List<PropertyKey> CLIENT_PROPERTY_KEYS = ImmutableList.of(
+      OBSPropertyKey.UNDERFS_OBS_CONNECT_MAX,
+      OBSPropertyKey.UNDERFS_OBS_CONNECT_IDLE_MAX,
+      OBSPropertyKey.UNDERFS_OBS_CONNECT_IDLE_TIME,
+      OBSPropertyKey.UNDERFS_OBS_CONNECT_TIMEOUT,
+      OBSPropertyKey.UNDERFS_OBS_SOCKET_TIMEOUT,
+      OBSPropertyKey.UNDERFS_OBS_SOCKET_READ_BUFFER_SIZE,
+      OBSPropertyKey.UNDERFS_OBS_SOCKET_WRITE_BUFFER_SIZE);
+
+  /** The shared clients by endpoint, credentials and client settings. */
+  @GuardedBy("this")
+  private final Map<List<String>, SharedClient> mClients = new HashMap<>();
+
+  /** The shared clients by client instance. */
+  @GuardedBy("this")
+  private final Map<ObsClient, SharedClient> mSharedClients = new IdentityHashMap<>();
+
+  /**
+   * @return the registry shared by all OBS mounts
+   */
+  static OBSClientRegistry get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Gets a client for the given endpoint, credentials and settings, creating it if no mount uses
+   * one yet. Every call must be matched by a call to {@link #release(ObsClient)}.
+   *
+   * @param accessKey the access key
+   * @param secretKey the secret key
+   * @param endPoint the endpoint of OBS
+   * @param conf the configuration of the mount
+   * @return the shared client
+   */
+  synchronized ObsClient acquire(String accessKey, String secretKey, String endPoint,
+      UnderFileSystemConfiguration conf) {
+    List<String> key = new ArrayList<>();
+    key.add(endPoint);
+    key.add(accessKey);
+    key.add(secretKey);
+    for (PropertyKey propertyKey : CLIENT_PROPERTY_KEYS) {
+      key.add(conf.isSet(propertyKey) ? conf.get(propertyKey) : null);
+    }
+    SharedClient shared = mClients.get(key);
+    if (shared == null) {
+      shared = new SharedClient(key, new ObsClient(accessKey, secretKey,
+          OBSUnderFileSystem.createConfiguration(endPoint, conf)));
+      mClients.put(key, shared);
+      mSharedClients.put(shared.mClient, shared);
+      LOG.debug("Created OBS client for endpoint {}", endPoint);
+    }
+    shared.mRefCount++;
+    return shared.mClient;
+  }
+
+  /**
+   * Releases a client, closing it if no other mount uses it. Clients that were not acquired from
+   * this registry are ignored.
+   *
+   * @param client the client to release
+   */
+  void release(ObsClient client) throws IOException {
+    synchronized (this) {
+      SharedClient shared = mSharedClients.get(client);
+      if (shared == null || --shared.mRefCount > 0) {
+        return;
+      }
+      mSharedClients.remove(client);
+      mClients.remove(shared.mKey);
+    }
+    client.close();
+  }
+
+  /**
+   * A client and the number of mounts using it.
+   */
+  private static final class SharedClient {
+    private final List<String> mKey;
+    private final ObsClient mClient;
+    private int mRefCount;
+
+    private SharedClient(List<String> key, ObsClient client) {
+      mKey = key;
+      mClient = client;
+    }
+  }
+}
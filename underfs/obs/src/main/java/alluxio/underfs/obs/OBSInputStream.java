@@ -11,9 +11,11 @@
 
 package alluxio.underfs.obs;
 
+import alluxio.metrics.MetricsSystem;
 import alluxio.retry.RetryPolicy;
 import alluxio.underfs.MultiRangeObjectInputStream;
 
+import com.google.common.base.Preconditions;
 import com.obs.services.ObsClient;
 import com.obs.services.exception.ObsException;
 import com.obs.services.model.GetObjectRequest;
@@ -24,19 +26,47 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
  * A stream for reading a file from OBS. This input stream returns 0 when calling read with an empty
  * buffer.
+ *
+ * If prefetching is enabled, the ranges following the one being read are opened in the background
+ * and their first bytes are buffered in memory, so the reader does not wait for the first byte of
+ * a range at every chunk boundary. The prefetched ranges are dropped as soon as the reader moves
+ * elsewhere. A reader reaching a range whose prefetch has not started yet, for instance because
+ * it is queued behind the prefetches of other streams, or which is not opened in time, drops the
+ * prefetch and opens the range itself.
+ *
+ * Otherwise the size of the ranges may adapt to the read pattern instead of following the chunk
+ * size: it starts at the minimum range size, doubles while the object is read sequentially up to
+ * the maximum range size, and drops back to the minimum after a seek. A range may then span
+ * several chunks, whose streams share its connection.
+ *
+ * The stream is not thread safe, except for {@link #positionedRead(long, byte[], int, int)},
+ * which serves concurrent readers of one object with independent range requests.
  */
 @NotThreadSafe
 public class OBSInputStream extends MultiRangeObjectInputStream {
   private static final Logger LOG = LoggerFactory.getLogger(OBSInputStream.class);
 
+  /** Response header of a range read, holding the size of the object. */
+  private static final String CONTENT_RANGE = "Content-Range";
+
   /** Bucket name of the OBS bucket. */
   private final String mBucketName;
 
@@ -46,8 +76,17 @@ public class OBSInputStream extends MultiRangeObjectInputStream {
   /** The OBS client. */
   private final ObsClient mObsClient;
 
-  /** The size of the object in bytes. */
-  private final long mContentLength;
+  /** The metric counting the bytes of the ranges requested by the streams. */
+  static final String BYTES_REQUESTED_METRIC = "OBSReadBytesRequested";
+
+  /** The metric counting the bytes returned to the readers of the streams. */
+  static final String BYTES_CONSUMED_METRIC = "OBSReadBytesConsumed";
+
+  /** Content length of an object whose length has not been learned yet. */
+  static final long UNKNOWN_CONTENT_LENGTH = -1L;
+
+  /** The size of the object in bytes, or {@link #UNKNOWN_CONTENT_LENGTH}. */
+  private volatile long mContentLength;
 
   /**
    * Policy determining the retry behavior in case the key does not exist. The key may not exist
@@ -55,6 +94,54 @@ public class OBSInputStream extends MultiRangeObjectInputStream {
    */
   private final RetryPolicy mRetryPolicy;
 
+  /** Retries the requests that failed with a transient error. */
+  private final OBSRetryHandler mRetryHandler;
+
+  /** The size of the ranges requested from OBS. */
+  private final long mChunkSize;
+
+  /** The executor opening ranges ahead of the reader, or null if prefetching is disabled. */
+  private final ExecutorService mPrefetchExecutor;
+
+  /** The number of ranges opened ahead of the reader. */
+  private final int mPrefetchChunks;
+
+  /** The maximum number of bytes of a prefetched range buffered in memory. */
+  private final int mPrefetchBufferSize;
+
+  /** The maximum time the reader waits for a started prefetch, in milliseconds. */
+  private final long mPrefetchTimeoutMs;
+
+  /** The ranges opened ahead of the reader, in range order. */
+  private final Deque<Prefetch> mPrefetches = new ArrayDeque<>();
+
+  /** The minimum size of an adaptive range, or 0 if the ranges have the chunk size. */
+  private final long mMinRangeSize;
+
+  /** The maximum size of an adaptive range. */
+  private final long mMaxRangeSize;
+
+  /** The size of the last adaptive range. */
+  private long mRangeSize;
+
+  /** The open adaptive range, or null. */
+  private InputStream mRange;
+
+  /** The position of the open adaptive range. */
+  private long mRangePos;
+
+  /** The end position of the last adaptive range, exclusive, or -1 if none was opened. */
+  private long mRangeEnd = -1;
+
+  /** The bytes of the ranges requested from OBS, including prefetched ranges. */
+  private final AtomicLong mBytesRequested = new AtomicLong();
+
+  /** The bytes returned to the readers. */
+  private final AtomicLong mBytesConsumed = new AtomicLong();
+
+  /** Whether the stream has been closed, and its byte counters reported. */
+  private volatile boolean mStreamClosed;
+
   /**
    * Creates a new instance of {@link OBSInputStream}.
    *
@@ -66,7 +153,7 @@ public class OBSInputStream extends MultiRangeObjectInputStream {
    */
   OBSInputStream(String bucketName, String key, ObsClient client, RetryPolicy retryPolicy,
       long multiRangeChunkSize) throws IOException {
-    this(bucketName, key, client, 0L, retryPolicy, multiRangeChunkSize);
+    this(bucketName, key, client, 0L, UNKNOWN_CONTENT_LENGTH, retryPolicy, multiRangeChunkSize);
   }
 
   /**
@@ -76,33 +163,230 @@ public class OBSInputStream extends MultiRangeObjectInputStream {
    * @param key the key of the file
    * @param client the OBS client
    * @param position the position to begin reading from
+   * @param contentLength the size of the object if known by the caller, or
+   *        {@link #UNKNOWN_CONTENT_LENGTH} to learn it from the first range read
    * @param retryPolicy retry policy in case the key does not exist
    * @param multiRangeChunkSize the chunk size to use on this stream
    */
   OBSInputStream(String bucketName, String key, ObsClient client, long position,
-      RetryPolicy retryPolicy, long multiRangeChunkSize) throws IOException {
+      long contentLength, RetryPolicy retryPolicy, long multiRangeChunkSize) throws IOException {
+    this(bucketName, key, client, position, contentLength, retryPolicy, multiRangeChunkSize, null,
+        0, 0, 0, 0, 0, new OBSRetryHandler(0, 1, 1));
+  }
+
+  /**
+   * Creates a new instance of {@link OBSInputStream} which opens the next ranges in the
+   * background, or adapts the size of the ranges to the read pattern.
+   *
+   * @param bucketName the name of the bucket
+   * @param key the key of the file
+   * @param client the OBS client
+   * @param position the position to begin reading from
+   * @param contentLength the size of the object if known by the caller, or
+   *        {@link #UNKNOWN_CONTENT_LENGTH} to learn it from the first range read
+   * @param retryPolicy retry policy in case the key does not exist
+   * @param multiRangeChunkSize the chunk size to use on this stream
+   * @param prefetchExecutor the executor opening ranges ahead of the reader, or null to disable
+   *        prefetching
+   * @param prefetchChunks the number of ranges opened ahead of the reader, 0 to disable
+   *        prefetching
+   * @param prefetchBufferSize the maximum number of bytes of a prefetched range buffered in memory
+   * @param prefetchTimeoutMs the maximum time the reader waits for a started prefetch before
+   *        opening the range itself, in milliseconds
+   * @param minRangeSize the minimum size of an adaptive range, or 0 to request ranges of the
+   *        chunk size. Adaptive ranges are not used while prefetching
+   * @param maxRangeSize the maximum size of an adaptive range
+   * @param retryHandler retries the requests that failed with a transient error
+   */
+  OBSInputStream(String bucketName, String key, ObsClient client, long position,
+      long contentLength, RetryPolicy retryPolicy, long multiRangeChunkSize,
+      ExecutorService prefetchExecutor, int prefetchChunks, int prefetchBufferSize,
+      long prefetchTimeoutMs, long minRangeSize, long maxRangeSize, OBSRetryHandler retryHandler)
+      throws IOException {
     super(multiRangeChunkSize);
     mBucketName = bucketName;
     mKey = key;
     mObsClient = client;
     mPos = position;
-    ObjectMetadata meta = mObsClient.getObjectMetadata(mBucketName, key);
-    mContentLength = meta == null ? 0 : meta.getContentLength();
+    mContentLength = contentLength;
     mRetryPolicy = retryPolicy;
+    mRetryHandler = retryHandler;
+    mChunkSize = multiRangeChunkSize;
+    mPrefetchExecutor = prefetchExecutor;
+    mPrefetchChunks = prefetchExecutor == null ? 0 : prefetchChunks;
+    mPrefetchBufferSize = prefetchBufferSize;
+    mPrefetchTimeoutMs = prefetchTimeoutMs;
+    mMinRangeSize = mPrefetchChunks > 0 ? 0 : minRangeSize;
+    mMaxRangeSize = Math.max(minRangeSize, maxRangeSize);
+    mRangeSize = mMinRangeSize;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int value = super.read();
+    if (value != -1) {
+      mBytesConsumed.incrementAndGet();
+    }
+    return value;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = super.read(b, off, len);
+    if (read > 0) {
+      mBytesConsumed.addAndGet(read);
+    }
+    return read;
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    cancelPrefetches();
+    closeRange();
+    if (mStreamClosed) {
+      return;
+    }
+    mStreamClosed = true;
+    MetricsSystem.counter(BYTES_REQUESTED_METRIC).inc(mBytesRequested.get());
+    MetricsSystem.counter(BYTES_CONSUMED_METRIC).inc(mBytesConsumed.get());
+    LOG.debug("Read {} of {} bytes requested from key {} in bucket {}", mBytesConsumed.get(),
+        mBytesRequested.get(), mKey, mBucketName);
+  }
+
+  /**
+   * @return the bytes of the ranges requested from OBS, including prefetched ranges
+   */
+  long getBytesRequested() {
+    return mBytesRequested.get();
+  }
+
+  /**
+   * @return the bytes returned to the reader
+   */
+  long getBytesConsumed() {
+    return mBytesConsumed.get();
+  }
+
+  /**
+   * Reads up to the given number of bytes from a position of the object, with a range request
+   * of its own. The position of the stream is not changed, and the method may be called by
+   * several threads at once, sharing the size of the object once it is known.
+   *
+   * @param position the position to read from
+   * @param buffer the buffer to read into
+   * @param offset the offset in the buffer
+   * @param length the maximum number of bytes to read
+   * @return the number of bytes read, which is less than the length only at the end of the
+   *         object, or -1 if the position is at or after the end of the object
+   */
+  public int positionedRead(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    Preconditions.checkArgument(position >= 0, "Position must not be negative.");
+    Preconditions.checkPositionIndexes(offset, offset + length, buffer.length);
+    if (mStreamClosed) {
+      throw new IOException("Stream closed");
+    }
+    if (length == 0) {
+      return 0;
+    }
+    long contentLength = mContentLength;
+    if (contentLength != UNKNOWN_CONTENT_LENGTH && position >= contentLength) {
+      return -1;
+    }
+    GetObjectRequest req = rangeRequest(position, position + length);
+    mBytesRequested.addAndGet(req.getRangeEnd() + 1 - position);
+    S3Object obj;
+    try {
+      obj = mRetryHandler.retry("getObject", req.getRangeEnd() + 1 - position,
+          () -> mObsClient.getObject(req));
+    } catch (ObsException e) {
+      if (e.getResponseCode() == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+        return -1;
+      }
+      throw new IOException(e);
+    }
+    long parsedLength = parseContentLength(obj.getMetadata());
+    if (contentLength == UNKNOWN_CONTENT_LENGTH && parsedLength != UNKNOWN_CONTENT_LENGTH) {
+      mContentLength = parsedLength;
+    }
+    int read = 0;
+    try (InputStream in = obj.getObjectContent()) {
+      int n;
+      while (read < length && (n = in.read(buffer, offset + read, length - read)) != -1) {
+        read += n;
+      }
+    }
+    mBytesConsumed.addAndGet(read);
+    return read == 0 ? -1 : read;
   }
 
   @Override
   protected InputStream createStream(long startPos, long endPos) throws IOException {
-    GetObjectRequest req = new GetObjectRequest(mBucketName, mKey);
-    req.setRangeStart(startPos);
-    req.setRangeEnd(endPos < mContentLength ? endPos - 1 : mContentLength - 1);
+    if (mMinRangeSize > 0) {
+      return new RangeView(startPos, endPos);
+    }
+    InputStream stream = takePrefetch(startPos, endPos);
+    if (stream == null) {
+      stream = openRange(startPos, endPos);
+    }
+    prefetch(endPos);
+    return stream;
+  }
+
+  /**
+   * Gets the open adaptive range at a position, opening a new one if the open range does not
+   * continue at the position. The new range is twice as large as the last one if it follows it,
+   * and has the minimum size otherwise.
+   *
+   * @param pos the position
+   * @return the adaptive range, positioned at the position
+   */
+  private InputStream rangeAt(long pos) throws IOException {
+    if (mRange != null && mRangePos == pos && pos < mRangeEnd) {
+      return mRange;
+    }
+    mRangeSize = pos == mRangeEnd ? Math.min(mRangeSize * 2, mMaxRangeSize) : mMinRangeSize;
+    closeRange();
+    long end = pos + mRangeSize;
+    mRange = openRange(pos, end);
+    mRangePos = pos;
+    mRangeEnd = mContentLength == UNKNOWN_CONTENT_LENGTH ? end : Math.min(end, mContentLength);
+    return mRange;
+  }
+
+  private void closeRange() {
+    closeQuietly(mRange);
+    mRange = null;
+  }
+
+  /**
+   * Opens a range, retrying while the key does not exist.
+   *
+   * @param startPos the start position of the range, inclusive
+   * @param endPos the end position of the range, exclusive
+   * @return the stream of the range
+   */
+  private InputStream openRange(long startPos, long endPos) throws IOException {
+    if (mContentLength != UNKNOWN_CONTENT_LENGTH && startPos >= mContentLength) {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+    GetObjectRequest req = rangeRequest(startPos, endPos);
+    mBytesRequested.addAndGet(req.getRangeEnd() + 1 - startPos);
     ObsException lastException = null;
     while (mRetryPolicy.attempt()) {
       try {
-        S3Object obj = mObsClient.getObject(req);
+        S3Object obj = mRetryHandler.retry("getObject", endPos - startPos,
+            () -> mObsClient.getObject(req));
+        if (mContentLength == UNKNOWN_CONTENT_LENGTH) {
+          mContentLength = parseContentLength(obj.getMetadata());
+        }
         return new BufferedInputStream(obj.getObjectContent());
       } catch (ObsException e) {
-        System.out.println(e.getResponseCode());
+        if (e.getResponseCode() == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+          // The range starts at or after the end of the object, there is nothing more to read
+          return new ByteArrayInputStream(new byte[0]);
+        }
         LOG.warn("Attempt {} to open key {} in bucket {} failed with exception : {}",
             mRetryPolicy.getAttemptCount(), mKey, mBucketName, e.toString());
         if (e.getResponseCode() != HttpStatus.SC_NOT_FOUND) {
@@ -115,4 +399,284 @@ public class OBSInputStream extends MultiRangeObjectInputStream {
     // Failed after retrying key does not exist
     throw new IOException(lastException);
   }
+
+  private GetObjectRequest rangeRequest(long startPos, long endPos) {
+    GetObjectRequest req = new GetObjectRequest(mBucketName, mKey);
+    req.setRangeStart(startPos);
+    req.setRangeEnd(mContentLength == UNKNOWN_CONTENT_LENGTH || endPos < mContentLength
+        ? endPos - 1 : mContentLength - 1);
+    return req;
+  }
+
+  /**
+   * Takes the prefetched stream of a range. Prefetched ranges before the requested one are
+   * dropped, and all of them are dropped if the requested range was not prefetched.
+   *
+   * @param startPos the start position of the range, inclusive
+   * @param endPos the end position of the range, exclusive
+   * @return the prefetched stream, or null if the range was not prefetched successfully, its
+   *         prefetch had not started, or it was not opened in time
+   */
+  private InputStream takePrefetch(long startPos, long endPos) throws IOException {
+    while (!mPrefetches.isEmpty() && mPrefetches.peekFirst().mEnd <= startPos) {
+      mPrefetches.removeFirst().cancel();
+    }
+    Prefetch next = mPrefetches.peekFirst();
+    if (next == null) {
+      return null;
+    }
+    if (next.mStart != startPos || next.mEnd != endPos) {
+      cancelPrefetches();
+      return null;
+    }
+    mPrefetches.removeFirst();
+    try {
+      return next.await(mPrefetchTimeoutMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Opens the ranges following the given position in the background, up to the prefetch depth.
+   *
+   * @param endPos the end position of the range being read
+   */
+  private void prefetch(long endPos) {
+    long start = mPrefetches.isEmpty() ? endPos : mPrefetches.peekLast().mEnd;
+    while (mPrefetches.size() < mPrefetchChunks
+        && (mContentLength == UNKNOWN_CONTENT_LENGTH || start < mContentLength)) {
+      Prefetch prefetch = new Prefetch(start, start + mChunkSize);
+      try {
+        prefetch.mFuture = mPrefetchExecutor.submit(() -> fetch(prefetch));
+      } catch (RejectedExecutionException e) {
+        // The under file system is closing
+        return;
+      }
+      mPrefetches.addLast(prefetch);
+      start = prefetch.mEnd;
+    }
+  }
+
+  /**
+   * Opens a prefetched range and buffers its first bytes. Failures are left to the reader, which
+   * opens the range again with retries.
+   *
+   * @param prefetch the range to open
+   */
+  private void fetch(Prefetch prefetch) {
+    if (!prefetch.start()) {
+      // The reader dropped the range, or opened it itself
+      return;
+    }
+    InputStream in = null;
+    try {
+      mBytesRequested.addAndGet(prefetch.mEnd - prefetch.mStart);
+      in = mRetryHandler.call("getObject", prefetch.mEnd - prefetch.mStart,
+          () -> mObsClient.getObject(rangeRequest(prefetch.mStart, prefetch.mEnd)))
+          .getObjectContent();
+      byte[] buffer =
+          new byte[(int) Math.min(mPrefetchBufferSize, prefetch.mEnd - prefetch.mStart)];
+      int read = 0;
+      int n;
+      while (read < buffer.length && (n = in.read(buffer, read, buffer.length - read)) != -1) {
+        read += n;
+      }
+      InputStream buffered = new ByteArrayInputStream(buffer, 0, read);
+      if (read < buffer.length) {
+        in.close();
+        prefetch.complete(buffered);
+      } else {
+        prefetch.complete(new SequenceInputStream(buffered, new BufferedInputStream(in)));
+      }
+    } catch (Throwable t) {
+      LOG.debug("Failed to prefetch range [{}, {}) of key {} in bucket {}: {}", prefetch.mStart,
+          prefetch.mEnd, mKey, mBucketName, t.toString());
+      closeQuietly(in);
+      prefetch.complete(null);
+    }
+  }
+
+  private void cancelPrefetches() {
+    while (!mPrefetches.isEmpty()) {
+      mPrefetches.removeFirst().cancel();
+    }
+  }
+
+  private static void closeQuietly(InputStream in) {
+    if (in == null) {
+      return;
+    }
+    try {
+      in.close();
+    } catch (IOException e) {
+      LOG.debug("Failed to close prefetched stream", e);
+    }
+  }
+
+  /**
+   * Gets the size of the object from the Content-Range header of a range read, which has the
+   * form "bytes start-end/size".
+   *
+   * @param meta the metadata of the range read
+   * @return the size of the object, or {@link #UNKNOWN_CONTENT_LENGTH} if it is not available
+   */
+  static long parseContentLength(ObjectMetadata meta) {
+    if (meta == null || meta.getResponseHeaders() == null) {
+      return UNKNOWN_CONTENT_LENGTH;
+    }
+    for (Map.Entry<String, Object> header : meta.getResponseHeaders().entrySet()) {
+      if (!CONTENT_RANGE.equalsIgnoreCase(header.getKey()) || header.getValue() == null) {
+        continue;
+      }
+      String value = header.getValue().toString();
+      int slash = value.lastIndexOf('/');
+      try {
+        return slash == -1 ? UNKNOWN_CONTENT_LENGTH : Long.parseLong(value.substring(slash + 1));
+      } catch (NumberFormatException e) {
+        // The size is "*" if the server does not know it
+        return UNKNOWN_CONTENT_LENGTH;
+      }
+    }
+    return UNKNOWN_CONTENT_LENGTH;
+  }
+
+  /**
+   * The stream of a chunk, read from the adaptive ranges. Closing it leaves the open range to the
+   * stream of the next chunk.
+   */
+  private final class RangeView extends InputStream {
+    private long mViewPos;
+    private final long mViewEnd;
+
+    private RangeView(long startPos, long endPos) {
+      mViewPos = startPos;
+      mViewEnd = endPos;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (mViewPos >= mViewEnd) {
+        return -1;
+      }
+      int value = rangeAt(mViewPos).read();
+      if (value != -1) {
+        mViewPos++;
+        mRangePos++;
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (mViewPos >= mViewEnd) {
+        return -1;
+      }
+      int read = rangeAt(mViewPos).read(b, off, (int) Math.min(len, mViewEnd - mViewPos));
+      if (read > 0) {
+        mViewPos += read;
+        mRangePos += read;
+      }
+      return read;
+    }
+  }
+
+  /**
+   * A range opened ahead of the reader.
+   */
+  private static final class Prefetch {
+    private final long mStart;
+    private final long mEnd;
+    /** The task opening the range. */
+    private Future<?> mFuture;
+    /** The stream of the range, or null if it could not be opened. */
+    @GuardedBy("this")
+    private InputStream mStream;
+    /** Whether the task opening the range started, after which the reader waits for it. */
+    @GuardedBy("this")
+    private boolean mStarted;
+    @GuardedBy("this")
+    private boolean mDone;
+    @GuardedBy("this")
+    private boolean mCancelled;
+
+    private Prefetch(long start, long end) {
+      mStart = start;
+      mEnd = end;
+    }
+
+    /**
+     * Marks the range as being opened, unless it has been dropped.
+     *
+     * @return whether the range should be opened
+     */
+    private synchronized boolean start() {
+      if (mCancelled) {
+        return false;
+      }
+      mStarted = true;
+      return true;
+    }
+
+    /**
+     * Publishes the stream of the range, or closes it if the range has been dropped meanwhile.
+     *
+     * @param stream the stream of the range, or null if it could not be opened
+     */
+    private void complete(InputStream stream) {
+      synchronized (this) {
+        if (!mCancelled) {
+          mStream = stream;
+          mDone = true;
+          notifyAll();
+          return;
+        }
+      }
+      closeQuietly(stream);
+    }
+
+    /**
+     * Waits for the range to be opened if its task started, and drops it otherwise, so the
+     * reader does not wait for a task queued behind other prefetches or dropped by the executor.
+     *
+     * @param timeoutMs the maximum time to wait for the started task, in milliseconds
+     * @return the stream of the range, or null if it could not be opened, its task had not
+     *         started, or it was not opened in time
+     */
+    private InputStream await(long timeoutMs) throws InterruptedException {
+      synchronized (this) {
+        long deadlineMs = System.currentTimeMillis() + timeoutMs;
+        long remainingMs = timeoutMs;
+        while (mStarted && !mDone && remainingMs > 0) {
+          wait(remainingMs);
+          remainingMs = deadlineMs - System.currentTimeMillis();
+        }
+        if (mDone) {
+          return mStream;
+        }
+      }
+      cancel();
+      return null;
+    }
+
+    /**
+     * Drops the range, closing its stream once it is opened.
+     */
+    private void cancel() {
+      InputStream stream;
+      synchronized (this) {
+        mCancelled = true;
+        stream = mStream;
+        mStream = null;
+      }
+      if (mFuture != null) {
+        mFuture.cancel(false);
+      }
+      closeQuietly(stream);
+    }
+  }
 }
@@ -11,36 +11,56 @@
 
 package alluxio.underfs.obs;
 
-import alluxio.util.CommonUtils;
 import alluxio.util.io.PathUtils;
 
 import com.google.common.base.Preconditions;
 import com.obs.services.ObsClient;
 import com.obs.services.exception.ObsException;
+import com.obs.services.model.AbortMultipartUploadRequest;
+import com.obs.services.model.CompleteMultipartUploadRequest;
+import com.obs.services.model.InitiateMultipartUploadRequest;
 import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.PartEtag;
+import com.obs.services.model.UploadPartRequest;
+import com.obs.services.model.UploadPartResult;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.DigestOutputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
- * A stream for writing a file into OBS. The data will be persisted to a temporary directory on the
- * local disk and copied as a complete file when the {@link #close()} method is called.
+ * A stream for writing a file into OBS. The data is first held in a buffer from the
+ * {@link OBSBufferPool}, and an object that fits in it is uploaded from memory when the
+ * {@link #close()} method is called. Larger data, or data written while no buffer is available,
+ * will be persisted to a temporary directory on the local disk. An object smaller than the
+ * partition size is copied as a complete file when the {@link #close()} method is called. Once
+ * the data grows past the partition size, the stream switches to a multipart upload: every full
+ * partition is uploaded in the background while the writer keeps writing, and {@link #close()}
+ * only uploads the last partition and completes the upload. A writer getting ahead of the uploads
+ * waits once a bounded number of its partitions are staged or being uploaded.
+ *
+ * With an {@link OBSAsyncUploader}, closing a stream whose object fits in one partition only
+ * queues its upload, and the object is written once the upload has run in the background.
  */
 @NotThreadSafe
 public final class OBSOutputStream extends OutputStream {
@@ -50,15 +70,45 @@ public final class OBSOutputStream extends OutputStream {
   private final String mBucketName;
   /** Key of the file when it is uploaded to OBS. */
   private final String mKey;
-  /** The local file that will be uploaded when the stream is closed. */
-  private final File mFile;
   /** The OBS client. */
   private final ObsClient mObsClient;
+  /** The temporary directories to stage the partitions in. */
+  private final OBSStagingDirs mStagingDirs;
+  /** The pool of memory buffers for small objects, or null to always stage on disk. */
+  private final OBSBufferPool mBufferPool;
+  /** The executor uploading the partitions of a multipart upload. */
+  private final ExecutorService mExecutor;
+  /** The size of a partition, and the size above which a multipart upload is used. */
+  private final long mPartitionSize;
+  /** Whether the Content-MD5 of every request is sent, for OBS to verify the data. */
+  private final boolean mChecksumEnabled;
+  /** Retries the requests that failed with a transient error. */
+  private final OBSRetryHandler mRetryHandler;
+  /** Uploads objects in the background once the stream is closed, or null to upload on close. */
+  private final OBSAsyncUploader mAsyncUploader;
+  /** The maximum number of partitions of the stream staged or being uploaded. */
+  private final int mMaxPartitionsInFlight;
+
+  /** The memory buffer holding the object while it is small, or null once staged on disk. */
+  private byte[] mBuffer;
+  /** The number of bytes the memory buffer is used for, at most the partition size. */
+  private int mBufferCapacity;
 
-  /** The outputstream to a local file where the file will be buffered until closed. */
+  /** The local file of the current partition. */
+  private File mFile;
+  /** The staging directory of the current partition. */
+  private String mFileDir;
+  /** The outputstream to the local file of the current partition. */
   private OutputStream mLocalOutputStream;
-  /** The MD5 hash of the file. */
-  private MessageDigest mHash;
+  /** The number of bytes written to the current partition. */
+  private long mPartitionBytes;
+
+  /** The id of the multipart upload, or null if the object still fits in one partition. */
+  private String mUploadId;
+  /** The partitions handed to the executor, in partition order. */
+  private final List<Partition> mPartitions = new ArrayList<>();
+  /** The number of partitions, from the first one, known to be uploaded. */
+  private int mUploadedPartitions;
 
   /** Flag to indicate this stream has been closed, to ensure close is only done once. */
   private AtomicBoolean mClosed = new AtomicBoolean(false);
@@ -69,29 +119,71 @@ public final class OBSOutputStream extends OutputStream {
    * @param bucketName the name of the bucket
    * @param key the key of the file
    * @param client the OBS client
-   * @param tmpDirs a list of temporary directories
+   * @param stagingDirs the temporary directories to stage the partitions in
+   * @param bufferPool the pool of memory buffers for small objects, or null to always stage on
+   *        disk
+   * @param executor the executor uploading the partitions of a multipart upload
+   * @param partitionSize the size of a partition, and the size above which a multipart upload
+   *        is used
+   * @param checksumEnabled whether the Content-MD5 of every request is sent. The MD5 of a
+   *        partition is computed by the thread uploading it
+   * @param retryHandler retries the requests that failed with a transient error
+   */
+  OBSOutputStream(String bucketName, String key, ObsClient client, OBSStagingDirs stagingDirs,
+      OBSBufferPool bufferPool, ExecutorService executor, long partitionSize,
+      boolean checksumEnabled, OBSRetryHandler retryHandler) throws IOException {
+    this(bucketName, key, client, stagingDirs, bufferPool, executor, partitionSize,
+        checksumEnabled, retryHandler, null, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates a new instance of {@link OBSOutputStream}.
+   *
+   * @param bucketName the name of the bucket
+   * @param key the key of the file
+   * @param client the OBS client
+   * @param stagingDirs the temporary directories to stage the partitions in
+   * @param bufferPool the pool of memory buffers for small objects, or null to always stage on
+   *        disk
+   * @param executor the executor uploading the partitions of a multipart upload
+   * @param partitionSize the size of a partition, and the size above which a multipart upload
+   *        is used
+   * @param checksumEnabled whether the Content-MD5 of every request is sent. The MD5 of a
+   *        partition is computed by the thread uploading it
+   * @param retryHandler retries the requests that failed with a transient error
+   * @param asyncUploader uploads the object in the background once the stream is closed, if it
+   *        fits in one partition, or null to upload it on close
+   * @param maxPartitionsInFlight the maximum number of partitions staged or being uploaded,
+   *        beyond which the writer waits for the oldest one
    */
-  public OBSOutputStream(String bucketName, String key, ObsClient client,
-      List<String> tmpDirs) throws IOException {
+  OBSOutputStream(String bucketName, String key, ObsClient client, OBSStagingDirs stagingDirs,
+      OBSBufferPool bufferPool, ExecutorService executor, long partitionSize,
+      boolean checksumEnabled, OBSRetryHandler retryHandler, OBSAsyncUploader asyncUploader,
+      int maxPartitionsInFlight) throws IOException {
     Preconditions.checkArgument(bucketName != null && !bucketName.isEmpty(),
         "Bucket name must not be null or empty.");
     Preconditions.checkArgument(key != null && !key.isEmpty(),
         "OBS object key must not be null or empty.");
     Preconditions.checkArgument(client != null, "ObsClient must not be null.");
+    Preconditions.checkArgument(partitionSize > 0, "Partition size must be positive.");
+    Preconditions.checkArgument(maxPartitionsInFlight > 0,
+        "Maximum partitions in flight must be positive.");
     mBucketName = bucketName;
     mKey = key;
     mObsClient = client;
-
-    mFile = new File(PathUtils.concatPath(CommonUtils.getTmpDir(tmpDirs), UUID.randomUUID()));
-
-    try {
-      mHash = MessageDigest.getInstance("MD5");
-      mLocalOutputStream =
-          new BufferedOutputStream(new DigestOutputStream(new FileOutputStream(mFile), mHash));
-    } catch (NoSuchAlgorithmException e) {
-      LOG.warn("Algorithm not available for MD5 hash.", e);
-      mHash = null;
-      mLocalOutputStream = new BufferedOutputStream(new FileOutputStream(mFile));
+    mStagingDirs = stagingDirs;
+    mBufferPool = bufferPool;
+    mExecutor = executor;
+    mPartitionSize = partitionSize;
+    mChecksumEnabled = checksumEnabled;
+    mRetryHandler = retryHandler;
+    mAsyncUploader = asyncUploader;
+    mMaxPartitionsInFlight = maxPartitionsInFlight;
+    mBuffer = bufferPool == null ? null : bufferPool.acquire();
+    if (mBuffer != null) {
+      mBufferCapacity = (int) Math.min(mBuffer.length, partitionSize);
+    } else {
+      openPartition();
     }
   }
 
@@ -103,7 +195,18 @@ public final class OBSOutputStream extends OutputStream {
    */
   @Override
   public void write(int b) throws IOException {
+    if (mBuffer != null) {
+      if (mPartitionBytes < mBufferCapacity) {
+        mBuffer[(int) mPartitionBytes++] = (byte) b;
+        return;
+      }
+      spill();
+    }
+    if (mPartitionBytes >= mPartitionSize) {
+      uploadPartition();
+    }
     mLocalOutputStream.write(b);
+    mPartitionBytes++;
   }
 
   /**
@@ -114,7 +217,7 @@ public final class OBSOutputStream extends OutputStream {
    */
   @Override
   public void write(byte[] b) throws IOException {
-    mLocalOutputStream.write(b, 0, b.length);
+    write(b, 0, b.length);
   }
 
   /**
@@ -127,7 +230,24 @@ public final class OBSOutputStream extends OutputStream {
    */
   @Override
   public void write(byte[] b, int off, int len) throws IOException {
-    mLocalOutputStream.write(b, off, len);
+    if (mBuffer != null) {
+      if (mPartitionBytes + len <= mBufferCapacity) {
+        System.arraycopy(b, off, mBuffer, (int) mPartitionBytes, len);
+        mPartitionBytes += len;
+        return;
+      }
+      spill();
+    }
+    while (len > 0) {
+      if (mPartitionBytes >= mPartitionSize) {
+        uploadPartition();
+      }
+      int toWrite = (int) Math.min(len, mPartitionSize - mPartitionBytes);
+      mLocalOutputStream.write(b, off, toWrite);
+      mPartitionBytes += toWrite;
+      off += toWrite;
+      len -= toWrite;
+    }
   }
 
   /**
@@ -136,12 +256,16 @@ public final class OBSOutputStream extends OutputStream {
    */
   @Override
   public void flush() throws IOException {
-    mLocalOutputStream.flush();
+    if (mLocalOutputStream != null) {
+      mLocalOutputStream.flush();
+    }
   }
 
   /**
    * Closes this output stream. When an output stream is closed, the local temporary file is
-   * uploaded to OSS Service. Once the file is uploaded, the temporary file is deleted.
+   * uploaded to OBS Service. Once the file is uploaded, the temporary file is deleted. If a
+   * multipart upload was started, the last partition is uploaded and the upload is completed.
+   * An object which fits in one partition is only queued for upload if close is asynchronous.
    */
   @Override
   public void close() throws IOException {
@@ -149,21 +273,294 @@ public final class OBSOutputStream extends OutputStream {
       LOG.warn("OBSOutputStream is already closed");
       return;
     }
+    if (mBuffer != null) {
+      putOrSubmit(this::putObjectFromMemory);
+      return;
+    }
     mLocalOutputStream.close();
+    if (mUploadId == null) {
+      putOrSubmit(this::putObject);
+      return;
+    }
+    if (mPartitionBytes > 0) {
+      submitPartition();
+    } else {
+      deleteFile(mFile, mFileDir);
+    }
+    completeMultipartUpload();
+  }
+
+  /**
+   * Runs the upload of an object which fits in one partition on the executor and waits for it, or
+   * queues it to the background uploader. Either way its MD5 is not computed by the writer.
+   *
+   * @param upload the upload
+   */
+  private void putOrSubmit(OBSAsyncUploader.Upload upload) throws IOException {
+    if (mAsyncUploader == null) {
+      Future<Void> put = mExecutor.submit(() -> {
+        upload.run();
+        return null;
+      });
+      try {
+        put.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+      return;
+    }
+    try {
+      mAsyncUploader.submit(mKey, mPartitionBytes, upload);
+    } catch (IOException e) {
+      LOG.error("Failed to queue the upload of {}", mKey);
+      if (mBuffer != null) {
+        releaseBuffer();
+      } else {
+        deleteFile(mFile, mFileDir);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Uploads the current partition, which holds the whole object, with a single request. The
+   * local file is deleted whether the upload succeeds or not.
+   */
+  private void putObject() throws IOException {
     try {
-      BufferedInputStream in = new BufferedInputStream(
-          new FileInputStream(mFile));
       ObjectMetadata objMeta = new ObjectMetadata();
       objMeta.setContentLength(mFile.length());
-      if (mHash != null) {
-        byte[] hashBytes = mHash.digest();
-        objMeta.setContentMd5(new String(Base64.encodeBase64(hashBytes)));
+      if (mChecksumEnabled) {
+        objMeta.setContentMd5(md5(mFile));
       }
-      mObsClient.putObject(mBucketName, mKey, in, objMeta);
-      mFile.delete();
+      // Every attempt reads the file from the start
+      mRetryHandler.retry("putObject", objMeta.getContentLength(), () -> {
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(mFile))) {
+          return mObsClient.putObject(mBucketName, mKey, in, objMeta);
+        }
+      });
     } catch (ObsException e) {
-      LOG.error("Failed to upload {}. Temporary file @ {}", mKey, mFile.getPath());
+      LOG.error("Failed to upload {}", mKey);
       throw new IOException(e);
+    } finally {
+      deleteFile(mFile, mFileDir);
+    }
+  }
+
+  /**
+   * Uploads the object held in the memory buffer with a single request.
+   */
+  private void putObjectFromMemory() throws IOException {
+    try {
+      ObjectMetadata objMeta = new ObjectMetadata();
+      objMeta.setContentLength(mPartitionBytes);
+      if (mChecksumEnabled) {
+        MessageDigest hash = DigestUtils.getMd5Digest();
+        hash.update(mBuffer, 0, (int) mPartitionBytes);
+        objMeta.setContentMd5(new String(Base64.encodeBase64(hash.digest())));
+      }
+      mRetryHandler.retry("putObject", mPartitionBytes, () -> mObsClient.putObject(mBucketName,
+          mKey, new ByteArrayInputStream(mBuffer, 0, (int) mPartitionBytes), objMeta));
+    } catch (ObsException e) {
+      LOG.error("Failed to upload {} from memory", mKey);
+      throw new IOException(e);
+    } finally {
+      releaseBuffer();
+    }
+  }
+
+  /**
+   * Moves the data of the memory buffer to a local file, once it outgrows the buffer.
+   */
+  private void spill() throws IOException {
+    byte[] buffer = mBuffer;
+    int bytes = (int) mPartitionBytes;
+    try {
+      openPartition();
+      mLocalOutputStream.write(buffer, 0, bytes);
+      mPartitionBytes = bytes;
+    } finally {
+      releaseBuffer();
+    }
+  }
+
+  private void releaseBuffer() {
+    mBufferPool.release(mBuffer);
+    mBuffer = null;
+  }
+
+  /**
+   * Hands the current partition to the executor, starting the multipart upload if needed, and
+   * opens the next partition. Waits for the oldest partitions while too many are in flight.
+   */
+  private void uploadPartition() throws IOException {
+    awaitPartitionsInFlight(mMaxPartitionsInFlight - 1);
+    mLocalOutputStream.close();
+    if (mUploadId == null) {
+      try {
+        mUploadId = mRetryHandler.retry("initiateMultipartUpload",
+            () -> mObsClient.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(mBucketName, mKey))).getUploadId();
+      } catch (ObsException e) {
+        LOG.error("Failed to initiate multipart upload of {}. Temporary file @ {}", mKey,
+            mFile.getPath());
+        throw new IOException(e);
+      }
+    }
+    submitPartition();
+    openPartition();
+  }
+
+  /**
+   * Waits for the oldest partitions to be uploaded until at most the given number are in flight.
+   * A failed partition is reported here, and the upload is aborted when the stream is closed.
+   *
+   * @param maxInFlight the number of partitions which may stay in flight
+   */
+  private void awaitPartitionsInFlight(int maxInFlight) throws IOException {
+    while (mPartitions.size() - mUploadedPartitions > maxInFlight) {
+      try {
+        mPartitions.get(mUploadedPartitions).mUpload.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      }
+      mUploadedPartitions++;
+    }
+  }
+
+  /**
+   * Submits the upload of the current partition to the executor.
+   */
+  private void submitPartition() {
+    final Partition partition = new Partition(mFile, mFileDir);
+    final File file = mFile;
+    final int partNumber = mPartitions.size() + 1;
+    mPartitions.add(partition);
+    partition.mUpload = mExecutor.submit(() -> {
+      try {
+        UploadPartRequest request = new UploadPartRequest(mBucketName, mKey);
+        request.setUploadId(mUploadId);
+        request.setPartNumber(partNumber);
+        request.setFile(file);
+        request.setPartSize(file.length());
+        if (mChecksumEnabled) {
+          request.setContentMd5(md5(file));
+        }
+        UploadPartResult result =
+            mRetryHandler.retry("uploadPart", file.length(), () -> mObsClient.uploadPart(request));
+        return new PartEtag(result.getEtag(), result.getPartNumber());
+      } finally {
+        partition.deleteFile();
+      }
+    });
+  }
+
+  /**
+   * Computes the MD5 of a local file, on the thread uploading it rather than the writer.
+   *
+   * @param file the file
+   * @return the Base64 encoded MD5 of the file
+   */
+  private static String md5(File file) throws IOException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      return new String(Base64.encodeBase64(DigestUtils.md5(in)));
+    }
+  }
+
+  /**
+   * Deletes the local file of a partition, and releases its space in the staging directory.
+   *
+   * @param file the file of the partition
+   * @param dir the staging directory of the partition
+   */
+  private void deleteFile(File file, String dir) {
+    if (!file.delete()) {
+      LOG.warn("Failed to delete temporary file @ {}", file.getPath());
+    }
+    mStagingDirs.release(dir, mPartitionSize);
+  }
+
+  /**
+   * Waits for all partitions to be uploaded and completes the multipart upload, or aborts it if a
+   * partition failed.
+   */
+  private void completeMultipartUpload() throws IOException {
+    try {
+      List<PartEtag> partEtags = new ArrayList<>(mPartitions.size());
+      for (Partition partition : mPartitions) {
+        partEtags.add(partition.mUpload.get());
+      }
+      mRetryHandler.retry("completeMultipartUpload", () -> mObsClient.completeMultipartUpload(
+          new CompleteMultipartUploadRequest(mBucketName, mKey, mUploadId, partEtags)));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abortMultipartUpload();
+      throw new IOException(e);
+    } catch (ExecutionException | ObsException e) {
+      LOG.error("Failed to upload {} with multipart upload {}", mKey, mUploadId, e);
+      abortMultipartUpload();
+      throw new IOException(e);
+    }
+  }
+
+  private void abortMultipartUpload() {
+    for (Partition partition : mPartitions) {
+      partition.mUpload.cancel(true);
+      // A partition cancelled before its upload started is never deleted by the upload
+      partition.deleteFile();
+    }
+    try {
+      mRetryHandler.retry("abortMultipartUpload", () -> mObsClient.abortMultipartUpload(
+          new AbortMultipartUploadRequest(mBucketName, mKey, mUploadId)));
+    } catch (ObsException e) {
+      LOG.error("Failed to abort multipart upload {} of {}", mUploadId, mKey, e);
+    }
+  }
+
+  /**
+   * Opens a new local file for the current partition, in the least loaded staging directory.
+   */
+  private void openPartition() throws IOException {
+    mFileDir = mStagingDirs.reserve(mPartitionSize);
+    mFile = new File(PathUtils.concatPath(mFileDir, UUID.randomUUID()));
+    mPartitionBytes = 0;
+    try {
+      mLocalOutputStream = new BufferedOutputStream(new FileOutputStream(mFile));
+    } catch (IOException e) {
+      mStagingDirs.release(mFileDir, mPartitionSize);
+      throw e;
+    }
+  }
+
+  /**
+   * A partition handed to the executor, whose local file is deleted once, either by its upload or
+   * when the multipart upload is aborted.
+   */
+  private final class Partition {
+    private final File mPartitionFile;
+    private final String mDir;
+    private final AtomicBoolean mDeleted = new AtomicBoolean(false);
+    /** The upload of the partition, set once it is submitted. */
+    private Future<PartEtag> mUpload;
+
+    private Partition(File file, String dir) {
+      mPartitionFile = file;
+      mDir = dir;
+    }
+
+    private void deleteFile() {
+      if (!mDeleted.getAndSet(true)) {
+        OBSOutputStream.this.deleteFile(mPartitionFile, mDir);
+      }
     }
   }
 }
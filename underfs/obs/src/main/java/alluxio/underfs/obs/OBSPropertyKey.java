@@ -27,6 +27,252 @@ public final class OBSPropertyKey {
       .setDescription("The endpoint of OBS bucket.").build();
   public static final PropertyKey OBS_SECRET_KEY = new PropertyKey.Builder(Name.OBS_SECRET_KEY)
       .setDescription("The secret key of OBS bucket.").build();
+  public static final PropertyKey UNDERFS_OBS_APPEND_ENABLED =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_APPEND_ENABLED)
+          .setDefaultValue(false)
+          .setDescription("Whether files are written to OBS as appendable objects. The data is "
+              + "appended whenever the buffer is full or the file is flushed, so flushed data is "
+              + "visible before the file is closed. Requires a bucket supporting appendable "
+              + "objects.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_APPEND_BUFFER_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_APPEND_BUFFER_SIZE)
+          .setDefaultValue("8MB")
+          .setDescription("The number of bytes buffered in memory before they are appended to "
+              + "an OBS appendable object.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_CONNECT_MAX =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_CONNECT_MAX)
+          .setDefaultValue(1000)
+          .setDescription("The maximum number of connections of the OBS client. Raise it for "
+              + "workers with many concurrent readers and writers.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_CONNECT_IDLE_MAX =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_CONNECT_IDLE_MAX)
+          .setDefaultValue(1000)
+          .setDescription("The maximum number of idle connections kept by the OBS client.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_CONNECT_IDLE_TIME =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_CONNECT_IDLE_TIME)
+          .setDefaultValue("30sec")
+          .setDescription("The time after which an idle connection of the OBS client is "
+              + "closed.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_CONNECT_TIMEOUT =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_CONNECT_TIMEOUT)
+          .setDefaultValue("60sec")
+          .setDescription("The timeout of establishing a connection to OBS.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_SOCKET_TIMEOUT =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_SOCKET_TIMEOUT)
+          .setDefaultValue("60sec")
+          .setDescription("The timeout of reading from or writing to an OBS connection.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_SOCKET_READ_BUFFER_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_SOCKET_READ_BUFFER_SIZE)
+          .setDescription("The receive buffer size of the sockets of the OBS client. The "
+              + "operating system default is used if not set.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_SOCKET_WRITE_BUFFER_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_SOCKET_WRITE_BUFFER_SIZE)
+          .setDescription("The send buffer size of the sockets of the OBS client. The "
+              + "operating system default is used if not set.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_COPY_THREADS =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_COPY_THREADS)
+          .setDefaultValue(16)
+          .setDescription("The number of objects copied concurrently when renaming an OBS "
+              + "directory, shared by all renames of a mount.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_MULTIPART_COPY_PARTITION_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_MULTIPART_COPY_PARTITION_SIZE)
+          .setDefaultValue("256MB")
+          .setDescription("The size of a partition of an OBS multipart copy. Objects of a "
+              + "renamed directory larger than this are copied in partitions in parallel.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_NATIVE_RENAME_ENABLED =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_NATIVE_RENAME_ENABLED)
+          .setDefaultValue(true)
+          .setDescription("Whether files and directories of OBS parallel file system buckets "
+              + "are renamed with the native rename of OBS. The bucket type is detected when "
+              + "the bucket is mounted, and other buckets are always renamed by copying.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_LISTING_FANOUT =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_LISTING_FANOUT)
+          .setDefaultValue(0)
+          .setDescription("The number of top level prefixes of a recursive OBS listing that are "
+              + "listed in parallel. 0 lists the whole tree with a single sequence of pages.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_LISTING_THREADS =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_LISTING_THREADS)
+          .setDefaultValue(16)
+          .setDescription("The number of threads fetching OBS listing pages in the background, "
+              + "shared by all listings of a mount.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_STATUS_CACHE_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_STATUS_CACHE_SIZE)
+          .setDefaultValue(0)
+          .setDescription("The maximum number of OBS object statuses cached by a mount, "
+              + "including keys known not to exist. The cache is kept up to date for writes "
+              + "through the mount, but may hide changes made by other clients for up to "
+              + "alluxio.underfs.obs.status.cache.ttl. 0 disables the cache.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_STATUS_CACHE_TTL =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_STATUS_CACHE_TTL)
+          .setDefaultValue("10sec")
+          .setDescription("The time after which a cached OBS object status expires.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_STATUS_RESOLVER_ENABLED =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_STATUS_RESOLVER_ENABLED)
+          .setDefaultValue(false)
+          .setDescription("Whether to tell whether an OBS path is a file, a directory or "
+              + "missing with a single delimiter listing, and to remember the kinds of the "
+              + "listed keys and of the children of listed directories for "
+              + "alluxio.underfs.obs.status.resolver.ttl. Changes made by other clients may be "
+              + "hidden until then.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_STATUS_RESOLVER_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_STATUS_RESOLVER_SIZE)
+          .setDefaultValue(100000)
+          .setDescription("The maximum number of OBS path kinds remembered by a mount.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_STATUS_RESOLVER_TTL =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_STATUS_RESOLVER_TTL)
+          .setDefaultValue("2sec")
+          .setDescription("The time after which a remembered OBS path kind expires.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_MULTIPART_UPLOAD_PARTITION_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_MULTIPART_UPLOAD_PARTITION_SIZE)
+          .setDefaultValue("64MB")
+          .setDescription("The size of a partition of an OBS multipart upload. Objects larger "
+              + "than this are uploaded in partitions while they are being written.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_MULTIPART_UPLOAD_PARTITIONS_MAX =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_MULTIPART_UPLOAD_PARTITIONS_MAX)
+          .setDefaultValue(8)
+          .setDescription("The maximum number of partitions of a file written to OBS which are "
+              + "staged on local disk or being uploaded. A writer getting ahead of the uploads "
+              + "waits for the oldest partition.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_MULTIPART_UPLOAD_THREADS =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_MULTIPART_UPLOAD_THREADS)
+          .setDefaultValue(20)
+          .setDescription("The number of threads uploading the partitions of OBS multipart "
+              + "uploads, shared by all files written to a mount.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_UPLOAD_CHECKSUM_ENABLED =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_UPLOAD_CHECKSUM_ENABLED)
+          .setDefaultValue(true)
+          .setDescription("Whether OBS uploads send the Content-MD5 of every object and part, "
+              + "for OBS to verify the data. The MD5 of an object or part is computed by the "
+              + "upload thread sending it, not by the writer.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_UPLOAD_MEMORY_BUFFER_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_UPLOAD_MEMORY_BUFFER_SIZE)
+          .setDefaultValue("4MB")
+          .setDescription("The size of the memory buffer an OBS upload starts in. Objects which "
+              + "fit in it are uploaded from memory without being staged on local disk. "
+              + "0 stages all uploads on disk.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_UPLOAD_MEMORY_BUFFERS_MAX =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_UPLOAD_MEMORY_BUFFERS_MAX)
+          .setDefaultValue(16)
+          .setDescription("The maximum number of memory buffers used by the uploads of a mount "
+              + "at the same time. Uploads started while all buffers are in use are staged on "
+              + "disk.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_UPLOAD_ASYNC_ENABLED =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_UPLOAD_ASYNC_ENABLED)
+          .setDefaultValue(false)
+          .setDescription("Whether closing an OBS file smaller than the multipart upload "
+              + "partition size only queues its upload, which then runs in the background. "
+              + "The file is not visible in OBS until its upload has run, and opening, "
+              + "renaming, copying, deleting or getting the status of the file through the "
+              + "mount waits for it. A failed upload loses the data of a file whose close "
+              + "already succeeded: it is logged, reported once by the next file created on "
+              + "the mount, and reported when the pending uploads of the mount are waited "
+              + "for, which also happens when the mount is closed. Only enable this when the "
+              + "data can be written again.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_UPLOAD_ASYNC_BYTES_MAX =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_UPLOAD_ASYNC_BYTES_MAX)
+          .setDefaultValue("512MB")
+          .setDescription("The maximum number of bytes of the background uploads of a mount "
+              + "which are queued or running. Closing a file waits while this is reached.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_UPLOAD_ASYNC_THREADS =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_UPLOAD_ASYNC_THREADS)
+          .setDefaultValue(8)
+          .setDescription("The number of threads of a mount running background uploads.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_READ_PREFETCH_CHUNKS =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_READ_PREFETCH_CHUNKS)
+          .setDefaultValue(0)
+          .setDescription("The number of ranges of an OBS object opened in the background "
+              + "ahead of the range being read. Each range has the size of "
+              + "alluxio.underfs.object.store.multi.range.chunk.size. 0 disables prefetching.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_READ_PREFETCH_BUFFER_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_READ_PREFETCH_BUFFER_SIZE)
+          .setDefaultValue("8MB")
+          .setDescription("The maximum number of bytes of a prefetched OBS range buffered in "
+              + "memory before the reader reaches it.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_READ_PREFETCH_TIMEOUT =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_READ_PREFETCH_TIMEOUT)
+          .setDefaultValue("10sec")
+          .setDescription("The maximum time a reader waits for the prefetch of the range it "
+              + "reaches before opening the range itself. A reader never waits for a prefetch "
+              + "which has not started.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_READ_PREFETCH_THREADS =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_READ_PREFETCH_THREADS)
+          .setDefaultValue(32)
+          .setDescription("The number of threads prefetching OBS ranges, shared by all files "
+              + "read from a mount.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_READ_ADAPTIVE_RANGE_ENABLED =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_READ_ADAPTIVE_RANGE_ENABLED)
+          .setDefaultValue(false)
+          .setDescription("Whether the size of the ranges read from an OBS object adapts to the "
+              + "read pattern instead of following "
+              + "alluxio.underfs.object.store.multi.range.chunk.size. The size doubles while "
+              + "the object is read sequentially, and drops to the minimum after a seek. Not "
+              + "used while prefetching.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_READ_ADAPTIVE_RANGE_MIN =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_READ_ADAPTIVE_RANGE_MIN)
+          .setDefaultValue("1MB")
+          .setDescription("The minimum size of an adaptive range read from an OBS object.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_READ_ADAPTIVE_RANGE_MAX =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_READ_ADAPTIVE_RANGE_MAX)
+          .setDefaultValue("64MB")
+          .setDescription("The maximum size of an adaptive range read from an OBS object.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_RETRY_MAX_NUM =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_RETRY_MAX_NUM)
+          .setDefaultValue(5)
+          .setDescription("The maximum number of retries of an OBS request that failed with a "
+              + "connection error, a timeout, throttling or a server error.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_RETRY_BASE_SLEEP =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_RETRY_BASE_SLEEP)
+          .setDefaultValue("50ms")
+          .setDescription("The base time to sleep before retrying an OBS request. The sleep time "
+              + "grows exponentially with the number of retries, with random jitter.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_RETRY_MAX_SLEEP =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_RETRY_MAX_SLEEP)
+          .setDefaultValue("3sec")
+          .setDescription("The maximum time to sleep before retrying an OBS request.")
+          .build();
+  public static final PropertyKey UNDERFS_OBS_REQUEST_SLOW_THRESHOLD =
+      new PropertyKey.Builder(Name.UNDERFS_OBS_REQUEST_SLOW_THRESHOLD)
+          .setDefaultValue("10sec")
+          .setDescription("The duration above which an attempt of an OBS request is logged as "
+              + "slow, with its operation, size and response code.")
+          .build();
 
   /**
    * Name for OBS configuration property keys.
@@ -36,5 +282,77 @@ public final class OBSPropertyKey {
     public static final String OBS_ACCESS_KEY = "fs.obs.accessKey";
     public static final String OBS_ENDPOINT = "fs.obs.endpoint";
     public static final String OBS_SECRET_KEY = "fs.obs.secretKey";
+    public static final String UNDERFS_OBS_APPEND_ENABLED = "alluxio.underfs.obs.append.enabled";
+    public static final String UNDERFS_OBS_APPEND_BUFFER_SIZE =
+        "alluxio.underfs.obs.append.buffer.size";
+    public static final String UNDERFS_OBS_CONNECT_MAX = "alluxio.underfs.obs.connect.max";
+    public static final String UNDERFS_OBS_CONNECT_IDLE_MAX =
+        "alluxio.underfs.obs.connect.idle.max";
+    public static final String UNDERFS_OBS_CONNECT_IDLE_TIME =
+        "alluxio.underfs.obs.connect.idle.time";
+    public static final String UNDERFS_OBS_CONNECT_TIMEOUT =
+        "alluxio.underfs.obs.connect.timeout";
+    public static final String UNDERFS_OBS_SOCKET_TIMEOUT = "alluxio.underfs.obs.socket.timeout";
+    public static final String UNDERFS_OBS_SOCKET_READ_BUFFER_SIZE =
+        "alluxio.underfs.obs.socket.read.buffer.size";
+    public static final String UNDERFS_OBS_SOCKET_WRITE_BUFFER_SIZE =
+        "alluxio.underfs.obs.socket.write.buffer.size";
+    public static final String UNDERFS_OBS_COPY_THREADS = "alluxio.underfs.obs.copy.threads";
+    public static final String UNDERFS_OBS_MULTIPART_COPY_PARTITION_SIZE =
+        "alluxio.underfs.obs.multipart.copy.partition.size";
+    public static final String UNDERFS_OBS_NATIVE_RENAME_ENABLED =
+        "alluxio.underfs.obs.native.rename.enabled";
+    public static final String UNDERFS_OBS_LISTING_FANOUT = "alluxio.underfs.obs.listing.fanout";
+    public static final String UNDERFS_OBS_LISTING_THREADS =
+        "alluxio.underfs.obs.listing.threads";
+    public static final String UNDERFS_OBS_STATUS_CACHE_SIZE =
+        "alluxio.underfs.obs.status.cache.size";
+    public static final String UNDERFS_OBS_STATUS_CACHE_TTL =
+        "alluxio.underfs.obs.status.cache.ttl";
+    public static final String UNDERFS_OBS_STATUS_RESOLVER_ENABLED =
+        "alluxio.underfs.obs.status.resolver.enabled";
+    public static final String UNDERFS_OBS_STATUS_RESOLVER_SIZE =
+        "alluxio.underfs.obs.status.resolver.size";
+    public static final String UNDERFS_OBS_STATUS_RESOLVER_TTL =
+        "alluxio.underfs.obs.status.resolver.ttl";
+    public static final String UNDERFS_OBS_MULTIPART_UPLOAD_PARTITION_SIZE =
+        "alluxio.underfs.obs.multipart.upload.partition.size";
+    public static final String UNDERFS_OBS_MULTIPART_UPLOAD_PARTITIONS_MAX =
+        "alluxio.underfs.obs.multipart.upload.partitions.max";
+    public static final String UNDERFS_OBS_MULTIPART_UPLOAD_THREADS =
+        "alluxio.underfs.obs.multipart.upload.threads";
+    public static final String UNDERFS_OBS_UPLOAD_CHECKSUM_ENABLED =
+        "alluxio.underfs.obs.upload.checksum.enabled";
+    public static final String UNDERFS_OBS_UPLOAD_MEMORY_BUFFER_SIZE =
+        "alluxio.underfs.obs.upload.memory.buffer.size";
+    public static final String UNDERFS_OBS_UPLOAD_MEMORY_BUFFERS_MAX =
+        "alluxio.underfs.obs.upload.memory.buffers.max";
+    public static final String UNDERFS_OBS_UPLOAD_ASYNC_ENABLED =
+        "alluxio.underfs.obs.upload.async.enabled";
+    public static final String UNDERFS_OBS_UPLOAD_ASYNC_BYTES_MAX =
+        "alluxio.underfs.obs.upload.async.bytes.max";
+    public static final String UNDERFS_OBS_UPLOAD_ASYNC_THREADS =
+        "alluxio.underfs.obs.upload.async.threads";
+    public static final String UNDERFS_OBS_READ_PREFETCH_CHUNKS =
+        "alluxio.underfs.obs.read.prefetch.chunks";
+    public static final String UNDERFS_OBS_READ_PREFETCH_BUFFER_SIZE =
+        "alluxio.underfs.obs.read.prefetch.buffer.size";
+    public static final String UNDERFS_OBS_READ_PREFETCH_TIMEOUT =
+        "alluxio.underfs.obs.read.prefetch.timeout";
+    public static final String UNDERFS_OBS_READ_PREFETCH_THREADS =
+        "alluxio.underfs.obs.read.prefetch.threads";
+    public static final String UNDERFS_OBS_READ_ADAPTIVE_RANGE_ENABLED =
+        "alluxio.underfs.obs.read.adaptive.range.enabled";
+    public static final String UNDERFS_OBS_READ_ADAPTIVE_RANGE_MIN =
+        "alluxio.underfs.obs.read.adaptive.range.min";
+    public static final String UNDERFS_OBS_READ_ADAPTIVE_RANGE_MAX =
+        "alluxio.underfs.obs.read.adaptive.range.max";
+    public static final String UNDERFS_OBS_RETRY_MAX_NUM = "alluxio.underfs.obs.retry.max.num";
+    public static final String UNDERFS_OBS_RETRY_BASE_SLEEP =
+        "alluxio.underfs.obs.retry.base.sleep";
+    public static final String UNDERFS_OBS_RETRY_MAX_SLEEP =
+        "alluxio.underfs.obs.retry.max.sleep";
+    public static final String UNDERFS_OBS_REQUEST_SLOW_THRESHOLD =
+        "alluxio.underfs.obs.request.slow.threshold";
   }
 }
@@ -0,0 +1,262 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import alluxio.metrics.MetricsSystem;
+import alluxio.retry.ExponentialBackoffRetry;
+import alluxio.retry.RetryPolicy;
+
+import com.google.common.base.Preconditions;
+import com.obs.services.exception.ObsException;
+import org.apache.commons.httpclient.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Runs and instruments OBS requests, and retries those that failed with a transient error, with
+ * exponential backoff and jitter.
+ *
+ * A request is retried if it failed before a response was received, timed out, was throttled or
+ * failed with a server error. Client errors such as a missing key are returned at once.
+ *
+ * Every attempt of an operation is timed and counted by response code, and the bytes sent or
+ * requested by successful attempts are counted, together with the retries and final failures,
+ * in the {@link MetricsSystem}. Attempts slower than the slow request threshold are logged.
+ */
+@ThreadSafe
+final class OBSRetryHandler {
+  private static final Logger LOG = LoggerFactory.getLogger(OBSRetryHandler.class);
+
+  /** HTTP status returned by OBS when requests are throttled. */
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+
+  /** Error code returned by OBS when requests are throttled. */
+  private static final String SLOW_DOWN = "SlowDown";
+
+  /** The response code reported for successful attempts. */
+  private static final int SC_SUCCESS = HttpStatus.SC_OK;
+
+  /** The maximum number of retries of a request. */
+  private final int mMaxRetries;
+
+  /** The base time to sleep before a retry, doubled on every retry. */
+  private final int mBaseSleepMs;
+
+  /** The maximum time to sleep before a retry. */
+  private final int mMaxSleepMs;
+
+  /** The duration above which an attempt is logged as slow. */
+  private final long mSlowRequestNanos;
+
+  /**
+   * A request to OBS.
+   *
+   * @param <T> the type of the result
+   * @param <E> the type of the checked exception thrown when preparing the request
+   */
+  @FunctionalInterface
+  interface ObsCallable<T, E extends Exception> {
+    /**
+     * @return the result of the request
+     */
+    T call() throws E;
+  }
+
+  /**
+   * Creates a new instance of {@link OBSRetryHandler}.
+   *
+   * @param maxRetries the maximum number of retries of a request
+   * @param baseSleepMs the base time to sleep before a retry
+   * @param maxSleepMs the maximum time to sleep before a retry
+   */
+  OBSRetryHandler(int maxRetries, int baseSleepMs, int maxSleepMs) {
+    this(maxRetries, baseSleepMs, maxSleepMs, Long.MAX_VALUE);
+  }
+
+  /**
+   * Creates a new instance of {@link OBSRetryHandler}.
+   *
+   * @param maxRetries the maximum number of retries of a request
+   * @param baseSleepMs the base time to sleep before a retry
+   * @param maxSleepMs the maximum time to sleep before a retry
+   * @param slowRequestMs the duration above which an attempt is logged as slow
+   */
+  OBSRetryHandler(int maxRetries, int baseSleepMs, int maxSleepMs, long slowRequestMs) {
+    Preconditions.checkArgument(maxRetries >= 0, "maxRetries must not be negative");
+    Preconditions.checkArgument(baseSleepMs > 0, "baseSleepMs must be positive");
+    Preconditions.checkArgument(maxSleepMs >= baseSleepMs,
+        "maxSleepMs must not be smaller than baseSleepMs");
+    mMaxRetries = maxRetries;
+    mBaseSleepMs = baseSleepMs;
+    mMaxSleepMs = maxSleepMs;
+    mSlowRequestNanos = slowRequestMs >= Long.MAX_VALUE / 1_000_000 ? Long.MAX_VALUE
+        : TimeUnit.MILLISECONDS.toNanos(slowRequestMs);
+  }
+
+  /**
+   * Runs a request, retrying it while it fails with a transient error.
+   *
+   * @param operation the name of the operation, used for logging and metrics
+   * @param callable the request
+   * @param <T> the type of the result
+   * @param <E> the type of the checked exception thrown when preparing the request, which is
+   *        never retried
+   * @return the result of the request
+   * @throws ObsException the last error if the request failed with a permanent error, or if the
+   *         retries are exhausted
+   */
+  <T, E extends Exception> T retry(String operation, ObsCallable<T, E> callable) throws E {
+    return retry(operation, 0, callable);
+  }
+
+  /**
+   * Runs a request which transfers the given number of bytes, retrying it while it fails with a
+   * transient error.
+   *
+   * @param operation the name of the operation, used for logging and metrics
+   * @param bytes the number of bytes sent or requested by the request
+   * @param callable the request
+   * @param <T> the type of the result
+   * @param <E> the type of the checked exception thrown when preparing the request, which is
+   *        never retried
+   * @return the result of the request
+   * @throws ObsException the last error if the request failed with a permanent error, or if the
+   *         retries are exhausted
+   */
+  <T, E extends Exception> T retry(String operation, long bytes, ObsCallable<T, E> callable)
+      throws E {
+    RetryPolicy retryPolicy = new ExponentialBackoffRetry(mBaseSleepMs, mMaxSleepMs, mMaxRetries);
+    ObsException lastException = null;
+    while (retryPolicy.attempt()) {
+      if (lastException != null) {
+        MetricsSystem.counter(getRetryMetricName(operation)).inc();
+      }
+      try {
+        return call(operation, bytes, callable);
+      } catch (ObsException e) {
+        if (!isRetryable(e)) {
+          throw e;
+        }
+        LOG.debug("Attempt {} of OBS {} failed with response code {}: {}",
+            retryPolicy.getAttemptCount(), operation, e.getResponseCode(), e.toString());
+        lastException = e;
+      }
+    }
+    MetricsSystem.counter(getFailureMetricName(operation)).inc();
+    LOG.warn("OBS {} failed after {} attempts: {}", operation, retryPolicy.getAttemptCount(),
+        lastException.toString());
+    throw lastException;
+  }
+
+  /**
+   * Runs a single attempt of a request, without retrying it, and instruments it.
+   *
+   * @param operation the name of the operation, used for logging and metrics
+   * @param bytes the number of bytes sent or requested by the request
+   * @param callable the request
+   * @param <T> the type of the result
+   * @param <E> the type of the checked exception thrown when preparing the request
+   * @return the result of the request
+   */
+  <T, E extends Exception> T call(String operation, long bytes, ObsCallable<T, E> callable)
+      throws E {
+    long startNanos = System.nanoTime();
+    // Stays unset if the request fails without a response
+    int responseCode = 0;
+    try {
+      T result = callable.call();
+      responseCode = SC_SUCCESS;
+      if (bytes > 0) {
+        MetricsSystem.counter(getBytesMetricName(operation)).inc(bytes);
+      }
+      return result;
+    } catch (ObsException e) {
+      responseCode = e.getResponseCode();
+      throw e;
+    } finally {
+      long elapsedNanos = System.nanoTime() - startNanos;
+      MetricsSystem.timer(getRequestMetricName(operation))
+          .update(elapsedNanos, TimeUnit.NANOSECONDS);
+      MetricsSystem.counter(getResponseMetricName(operation, responseCode)).inc();
+      if (elapsedNanos > mSlowRequestNanos) {
+        LOG.warn("Slow OBS {} of {} bytes took {} ms with response code {}", operation, bytes,
+            TimeUnit.NANOSECONDS.toMillis(elapsedNanos), responseCode);
+      }
+    }
+  }
+
+  /**
+   * @param e the error of a request
+   * @return whether the request may succeed if it is retried
+   */
+  static boolean isRetryable(ObsException e) {
+    int code = e.getResponseCode();
+    switch (code) {
+      case HttpStatus.SC_REQUEST_TIMEOUT:
+      case SC_TOO_MANY_REQUESTS:
+      case HttpStatus.SC_INTERNAL_SERVER_ERROR:
+      case HttpStatus.SC_BAD_GATEWAY:
+      case HttpStatus.SC_SERVICE_UNAVAILABLE:
+      case HttpStatus.SC_GATEWAY_TIMEOUT:
+        return true;
+      default:
+        // No response at all means the connection failed or was reset
+        return code <= 0 || SLOW_DOWN.equals(e.getErrorCode());
+    }
+  }
+
+  /**
+   * @param operation the name of the operation
+   * @return the name of the metric counting the retries of the operation
+   */
+  static String getRetryMetricName(String operation) {
+    return "OBSRetries." + operation;
+  }
+
+  /**
+   * @param operation the name of the operation
+   * @return the name of the metric counting the failures of the operation after retrying
+   */
+  static String getFailureMetricName(String operation) {
+    return "OBSFailures." + operation;
+  }
+
+  /**
+   * @param operation the name of the operation
+   * @return the name of the metric timing the attempts of the operation
+   */
+  static String getRequestMetricName(String operation) {
+    return "OBSRequests." + operation;
+  }
+
+  /**
+   * @param operation the name of the operation
+   * @param responseCode the response code of an attempt, or a non positive value if no
+   *        response was received
+   * @return the name of the metric counting the attempts of the operation with the response code
+   */
+  static String getResponseMetricName(String operation, int responseCode) {
+    return "OBSResponses." + operation + "." + (responseCode > 0 ? responseCode : "None");
+  }
+
+  /**
+   * @param operation the name of the operation
+   * @return the name of the metric counting the bytes sent or requested by the operation
+   */
+  static String getBytesMetricName(String operation) {
+    return "OBSBytes." + operation;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The local directories in which {@link OBSOutputStream}s stage their partitions.
+ *
+ * Every partition reserves its size on the directory it is staged in until it is uploaded.
+ * A new partition goes to the directory with the fewest reserved bytes among those with enough
+ * free space for it, or to the directory with the most free space if none has enough.
+ */
+@ThreadSafe
+final class OBSStagingDirs {
+  /** The staging directories. */
+  private final List<String> mDirs;
+
+  /** The bytes reserved by the partitions staged in each directory. */
+  @GuardedBy("this")
+  private final Map<String, Long> mReserved = new HashMap<>();
+
+  /**
+   * Creates a new instance of {@link OBSStagingDirs}.
+   *
+   * @param dirs the staging directories
+   */
+  OBSStagingDirs(List<String> dirs) {
+    Preconditions.checkArgument(dirs != null && !dirs.isEmpty(),
+        "Staging directories must not be empty.");
+    mDirs = dirs;
+    for (String dir : dirs) {
+      mReserved.put(dir, 0L);
+    }
+  }
+
+  /**
+   * Picks a directory for a partition, and reserves its size on the directory.
+   *
+   * @param bytes the size of the partition
+   * @return the directory
+   */
+  synchronized String reserve(long bytes) {
+    String leastLoaded = null;
+    String mostFree = null;
+    long mostFreeBytes = Long.MIN_VALUE;
+    for (String dir : mDirs) {
+      long reserved = mReserved.get(dir);
+      long free = new File(dir).getUsableSpace() - reserved;
+      if (free >= bytes && (leastLoaded == null || reserved < mReserved.get(leastLoaded))) {
+        leastLoaded = dir;
+      }
+      if (free > mostFreeBytes) {
+        mostFree = dir;
+        mostFreeBytes = free;
+      }
+    }
+    String dir = leastLoaded != null ? leastLoaded : mostFree;
+    mReserved.put(dir, mReserved.get(dir) + bytes);
+    return dir;
+  }
+
+  /**
+   * Releases the reservation of a partition once it is uploaded or discarded.
+   *
+   * @param dir the directory returned by {@link #reserve(long)}
+   * @param bytes the size passed to {@link #reserve(long)}
+   */
+  synchronized void release(String dir, long bytes) {
+    mReserved.put(dir, mReserved.get(dir) - bytes);
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import alluxio.metrics.MetricsSystem;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.obs.services.ObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.S3Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Resolves whether a key is a file, a directory or missing with a single delimiter listing,
+ * instead of the separate metadata requests for the object, the directory marker and the
+ * children. The listing of a key also tells the kind of the keys sharing its prefix, and the
+ * listing of a directory the kind of its children, so the answers are kept in a short-lived
+ * cache which serves the lookups of tree walks.
+ *
+ * Writes through the mount invalidate the key and its ancestors, whose kind they may change.
+ * Changes made by other clients may be hidden until the answers expire.
+ */
+@ThreadSafe
+final class OBSStatusResolver {
+  private static final Logger LOG = LoggerFactory.getLogger(OBSStatusResolver.class);
+
+  /** Name of the metric counting the lookups answered from the cache. */
+  static final String HITS_METRIC = "OBSStatusResolverHits";
+
+  /** Name of the metric counting the lookups resolved with a listing. */
+  static final String MISSES_METRIC = "OBSStatusResolverMisses";
+
+  private static final String SEPARATOR = "/";
+
+  /**
+   * The kind of a key. A key may be both a file and a directory, when an object exists at the
+   * key and other objects exist under it.
+   */
+  enum Kind {
+    FILE(true, false),
+    DIRECTORY(false, true),
+    FILE_AND_DIRECTORY(true, true),
+    MISSING(false, false);
+
+    private final boolean mFile;
+    private final boolean mDirectory;
+
+    Kind(boolean file, boolean directory) {
+      mFile = file;
+      mDirectory = directory;
+    }
+
+    /**
+     * @return whether an object exists at the key
+     */
+    boolean isFile() {
+      return mFile;
+    }
+
+    /**
+     * @return whether a directory marker or other objects exist under the key
+     */
+    boolean isDirectory() {
+      return mDirectory;
+    }
+
+    /**
+     * @return whether the key exists as a file or a directory
+     */
+    boolean exists() {
+      return mFile || mDirectory;
+    }
+
+    private static Kind of(boolean file, boolean directory) {
+      if (file) {
+        return directory ? FILE_AND_DIRECTORY : FILE;
+      }
+      return directory ? DIRECTORY : MISSING;
+    }
+
+    private Kind union(Kind other) {
+      return of(mFile || other.mFile, mDirectory || other.mDirectory);
+    }
+  }
+
+  private final ObsClient mClient;
+  private final String mBucketName;
+  private final OBSRetryHandler mRetryHandler;
+  private final int mMaxKeys;
+
+  /** The kinds of recently resolved keys, without the folder suffix. */
+  private final Cache<String, Kind> mKinds;
+
+  /**
+   * Creates a new instance of {@link OBSStatusResolver}.
+   *
+   * @param client the OBS client
+   * @param bucketName the name of the bucket
+   * @param retryHandler retries the requests that failed with a transient error
+   * @param maxKeys the maximum number of keys of a listing
+   * @param maxSize the maximum number of cached answers
+   * @param ttlMs the time after which a cached answer expires, in milliseconds
+   */
+  OBSStatusResolver(ObsClient client, String bucketName, OBSRetryHandler retryHandler,
+      int maxKeys, long maxSize, long ttlMs) {
+    Preconditions.checkArgument(maxKeys > 0, "Listing size must be positive.");
+    mClient = client;
+    mBucketName = bucketName;
+    mRetryHandler = retryHandler;
+    mMaxKeys = maxKeys;
+    mKinds = CacheBuilder.newBuilder().maximumSize(maxSize)
+        .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS).build();
+  }
+
+  /**
+   * Resolves the kind of a key. A key equal to the listing prefix is a file, and a common prefix
+   * made of the key and the folder suffix is a directory, whether it comes from a directory
+   * marker or from the children of the directory.
+   *
+   * @param key the key, with or without the folder suffix
+   * @return the kind of the key, or null if the listing could not tell, in which case the caller
+   *         should fall back to probing the key
+   */
+  @Nullable
+  Kind resolve(String key) {
+    String name = stripFolderSuffix(key);
+    Kind cached = mKinds.getIfPresent(name);
+    MetricsSystem.counter(cached == null ? MISSES_METRIC : HITS_METRIC).inc();
+    if (cached != null) {
+      return cached;
+    }
+    ListObjectsRequest request = new ListObjectsRequest(mBucketName);
+    request.setPrefix(name);
+    request.setDelimiter(SEPARATOR);
+    request.setMaxKeys(mMaxKeys);
+    ObjectListing listing;
+    try {
+      listing = mRetryHandler.retry("listObjects", () -> mClient.listObjects(request));
+    } catch (ObsException e) {
+      LOG.debug("Failed to resolve the status of {}", name, e);
+      return null;
+    }
+    if (listing == null) {
+      return null;
+    }
+    Map<String, Kind> kinds = collect(listing);
+    Kind kind = kinds.getOrDefault(name, Kind.MISSING);
+    if (listing.isTruncated()) {
+      // The object of the key sorts first, but keys sharing the prefix may sort between it and
+      // the folder of the key, which can be past the end of the listing
+      if (!kind.isDirectory()) {
+        Boolean directory = hasChildren(name);
+        if (directory == null) {
+          return null;
+        }
+        kind = Kind.of(kind.isFile(), directory);
+      }
+    } else {
+      mKinds.putAll(kinds);
+    }
+    mKinds.put(name, kind);
+    return kind;
+  }
+
+  /**
+   * Records the kinds of the keys of a page of a delimiter listing, so the lookups of the
+   * listed children are answered without a request. A key found both as an object and as a
+   * common prefix, possibly on different pages, is recorded as both.
+   *
+   * @param prefix the prefix of the listing, the folder of the listed directory
+   * @param listing the page of the listing
+   */
+  void add(String prefix, ObjectListing listing) {
+    Map<String, Kind> kinds = collect(listing);
+    if (!prefix.isEmpty() && !kinds.isEmpty()) {
+      kinds.merge(stripFolderSuffix(prefix), Kind.DIRECTORY, Kind::union);
+    }
+    for (Map.Entry<String, Kind> entry : kinds.entrySet()) {
+      mKinds.asMap().merge(entry.getKey(), entry.getValue(), Kind::union);
+    }
+  }
+
+  /**
+   * Drops the cached kind of a key written or deleted through the mount, and of its ancestors,
+   * which become directories when a key is created under them and may disappear when their last
+   * child is deleted.
+   *
+   * @param key the key, with or without the folder suffix
+   */
+  void invalidate(String key) {
+    String name = stripFolderSuffix(key);
+    while (!name.isEmpty()) {
+      mKinds.invalidate(name);
+      int index = name.lastIndexOf(SEPARATOR);
+      name = index < 0 ? "" : name.substring(0, index);
+    }
+  }
+
+  /**
+   * Drops the cached kinds of a directory, of its ancestors, and of everything under it.
+   *
+   * @param folder the key of the directory, with the folder suffix
+   */
+  void invalidateAll(String folder) {
+    invalidate(folder);
+    mKinds.asMap().keySet().removeIf(k -> k.startsWith(folder));
+  }
+
+  /**
+   * @param name the key
+   * @return whether any object exists under the key, or null if the listing failed
+   */
+  @Nullable
+  private Boolean hasChildren(String name) {
+    ListObjectsRequest request = new ListObjectsRequest(mBucketName);
+    request.setPrefix(name + SEPARATOR);
+    request.setMaxKeys(1);
+    try {
+      ObjectListing listing =
+          mRetryHandler.retry("listObjects", () -> mClient.listObjects(request));
+      return listing != null && !listing.getObjectSummaries().isEmpty();
+    } catch (ObsException e) {
+      LOG.debug("Failed to resolve the status of {}", name, e);
+      return null;
+    }
+  }
+
+  /**
+   * @param listing a page of a delimiter listing
+   * @return the kinds of the keys of the page, without the folder suffix
+   */
+  private static Map<String, Kind> collect(ObjectListing listing) {
+    Map<String, Kind> kinds = new HashMap<>();
+    for (S3Object object : listing.getObjectSummaries()) {
+      String key = object.getObjectKey();
+      // The marker of the listed directory itself is the only object with the folder suffix
+      Kind kind = key.endsWith(SEPARATOR) ? Kind.DIRECTORY : Kind.FILE;
+      kinds.merge(stripFolderSuffix(key), kind, Kind::union);
+    }
+    for (String prefix : listing.getCommonPrefixes()) {
+      kinds.merge(stripFolderSuffix(prefix), Kind.DIRECTORY, Kind::union);
+    }
+    return kinds;
+  }
+
+  private static String stripFolderSuffix(String key) {
+    return key.endsWith(SEPARATOR) ? key.substring(0, key.length() - SEPARATOR.length()) : key;
+  }
+}
@@ -13,31 +13,68 @@ package alluxio.underfs.obs;
 
 import alluxio.AlluxioURI;
 import alluxio.Constants;
+import alluxio.collections.Pair;
 import alluxio.conf.PropertyKey;
+import alluxio.metrics.MetricsSystem;
 import alluxio.retry.RetryPolicy;
 import alluxio.underfs.ObjectUnderFileSystem;
+import alluxio.underfs.UfsFileStatus;
+import alluxio.underfs.UfsStatus;
 import alluxio.underfs.UnderFileSystem;
 import alluxio.underfs.UnderFileSystemConfiguration;
+import alluxio.underfs.options.DeleteOptions;
+import alluxio.underfs.options.ListOptions;
 import alluxio.underfs.options.OpenOptions;
+import alluxio.util.ThreadFactoryUtils;
 import alluxio.util.UnderFileSystemUtils;
 import alluxio.util.io.PathUtils;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.obs.services.ObsClient;
+import com.obs.services.ObsConfiguration;
 import com.obs.services.exception.ObsException;
+import com.obs.services.model.AbortMultipartUploadRequest;
+import com.obs.services.model.CompleteMultipartUploadRequest;
+import com.obs.services.model.CopyPartRequest;
+import com.obs.services.model.CopyPartResult;
+import com.obs.services.model.DeleteObjectsRequest;
+import com.obs.services.model.DeleteObjectsResult;
+import com.obs.services.model.InitiateMultipartUploadRequest;
+import com.obs.services.model.KeyAndVersion;
 import com.obs.services.model.ListObjectsRequest;
 import com.obs.services.model.ObjectListing;
 import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.PartEtag;
 import com.obs.services.model.S3Object;
+import com.obs.services.model.fs.FSStatusEnum;
+import com.obs.services.model.fs.GetBucketFSStatusRequest;
+import com.obs.services.model.fs.GetBucketFSStatusResult;
+import com.obs.services.model.fs.RenameRequest;
+import org.apache.commons.httpclient.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
@@ -50,12 +87,69 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
   /** Suffix for an empty file to flag it as a directory. */
   private static final String FOLDER_SUFFIX = PATH_SEPARATOR;
 
+  /** Name of the metric counting the lookups served by the status cache. */
+  static final String STATUS_CACHE_HITS_METRIC = "OBSStatusCacheHits";
+
+  /** Name of the metric counting the lookups missing the status cache. */
+  static final String STATUS_CACHE_MISSES_METRIC = "OBSStatusCacheMisses";
+
+  /** The maximum number of keys OBS deletes with a single request. */
+  static final int MAX_DELETE_BATCH_SIZE = 1000;
+
   /** Huawei OBS client. */
   private final ObsClient mClient;
 
   /** Bucket name of user's configured Alluxio bucket. */
   private final String mBucketName;
 
+  /** Retries the requests that failed with a transient error. */
+  private final OBSRetryHandler mRetryHandler;
+
+  /**
+   * Recently fetched statuses by key, with an empty value for keys that do not exist, or null if
+   * statuses are not cached.
+   */
+  private final Cache<String, Optional<ObjectStatus>> mStatusCache;
+
+  /** Resolves the kinds of paths with single listings, or null if they are probed. */
+  private final OBSStatusResolver mStatusResolver;
+
+  /** Whether this UFS has been closed, to release the shared client only once. */
+  private final AtomicBoolean mClosed = new AtomicBoolean(false);
+
+  /** The temporary directories to stage the partitions of uploads in. */
+  private final OBSStagingDirs mStagingDirs;
+
+  /** The pool of memory buffers for small uploads, or null if they are staged on disk. */
+  private final OBSBufferPool mBufferPool;
+
+  /** The executor uploading the partitions of multipart uploads, created on first use. */
+  @GuardedBy("this")
+  private ExecutorService mUploadExecutor;
+
+  /** The executor running background uploads, or null if files are uploaded on close. */
+  private final ExecutorService mAsyncUploadExecutor;
+
+  /** Uploads closed files in the background, or null if they are uploaded on close. */
+  private final OBSAsyncUploader mAsyncUploader;
+
+  /** The executor opening ranges ahead of readers, or null if prefetching is disabled. */
+  private final ExecutorService mPrefetchExecutor;
+
+  /** The executor copying the objects of renamed directories, created on first use. */
+  @GuardedBy("this")
+  private ExecutorService mCopyExecutor;
+
+  /** The executor fetching listing pages in the background, created on first use. */
+  @GuardedBy("this")
+  private ExecutorService mListingExecutor;
+
+  /** The number of top level prefixes of a recursive listing listed in parallel, 0 to disable. */
+  private final int mListingFanOut;
+
+  /** Whether the bucket is a parallel file system bucket, renamed with native renames. */
+  private final boolean mNativeRename;
+
   /**
    * Constructs a new instance of {@link OBSUnderFileSystem}.
    *
@@ -75,9 +169,44 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
     String secretKey = conf.get(OBSPropertyKey.OBS_SECRET_KEY);
     String endPoint = conf.get(OBSPropertyKey.OBS_ENDPOINT);
 
-    ObsClient obsClient = new ObsClient(accessKey, secretKey, endPoint);
-    String bucketName = UnderFileSystemUtils.getBucketName(uri);
-    return new OBSUnderFileSystem(uri, obsClient, bucketName, conf);
+    ObsClient obsClient = OBSClientRegistry.get().acquire(accessKey, secretKey, endPoint, conf);
+    try {
+      String bucketName = UnderFileSystemUtils.getBucketName(uri);
+      return new OBSUnderFileSystem(uri, obsClient, bucketName, conf);
+    } catch (Exception e) {
+      OBSClientRegistry.get().release(obsClient);
+      throw e;
+    }
+  }
+
+  /**
+   * Creates the configuration of the OBS client, with the connection pool, timeouts and socket
+   * buffers of this UFS.
+   *
+   * @param endPoint the endpoint of OBS
+   * @param conf the configuration for this UFS
+   * @return the configuration of the OBS client
+   */
+  static ObsConfiguration createConfiguration(String endPoint,
+      UnderFileSystemConfiguration conf) {
+    ObsConfiguration obsConf = new ObsConfiguration();
+    obsConf.setEndPoint(endPoint);
+    obsConf.setMaxConnections(conf.getInt(OBSPropertyKey.UNDERFS_OBS_CONNECT_MAX));
+    obsConf.setMaxIdleConnections(conf.getInt(OBSPropertyKey.UNDERFS_OBS_CONNECT_IDLE_MAX));
+    obsConf.setIdleConnectionTime(
+        (int) conf.getMs(OBSPropertyKey.UNDERFS_OBS_CONNECT_IDLE_TIME));
+    obsConf.setConnectionTimeout((int) conf.getMs(OBSPropertyKey.UNDERFS_OBS_CONNECT_TIMEOUT));
+    obsConf.setSocketTimeout((int) conf.getMs(OBSPropertyKey.UNDERFS_OBS_SOCKET_TIMEOUT));
+    // The buffer sizes of the operating system are used unless set explicitly
+    if (conf.isSet(OBSPropertyKey.UNDERFS_OBS_SOCKET_READ_BUFFER_SIZE)) {
+      obsConf.setSocketReadBufferSize(
+          (int) conf.getBytes(OBSPropertyKey.UNDERFS_OBS_SOCKET_READ_BUFFER_SIZE));
+    }
+    if (conf.isSet(OBSPropertyKey.UNDERFS_OBS_SOCKET_WRITE_BUFFER_SIZE)) {
+      obsConf.setSocketWriteBufferSize(
+          (int) conf.getBytes(OBSPropertyKey.UNDERFS_OBS_SOCKET_WRITE_BUFFER_SIZE));
+    }
+    return obsConf;
   }
 
   /**
@@ -93,11 +222,181 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
     super(uri, conf);
     mClient = obsClient;
     mBucketName = bucketName;
+    mRetryHandler = new OBSRetryHandler(conf.getInt(OBSPropertyKey.UNDERFS_OBS_RETRY_MAX_NUM),
+        (int) conf.getMs(OBSPropertyKey.UNDERFS_OBS_RETRY_BASE_SLEEP),
+        (int) conf.getMs(OBSPropertyKey.UNDERFS_OBS_RETRY_MAX_SLEEP),
+        conf.getMs(OBSPropertyKey.UNDERFS_OBS_REQUEST_SLOW_THRESHOLD));
+    mStagingDirs = new OBSStagingDirs(conf.getList(PropertyKey.TMP_DIRS, ","));
+    int memoryBufferSize =
+        (int) conf.getBytes(OBSPropertyKey.UNDERFS_OBS_UPLOAD_MEMORY_BUFFER_SIZE);
+    if (memoryBufferSize > 0) {
+      mBufferPool = new OBSBufferPool(memoryBufferSize,
+          conf.getInt(OBSPropertyKey.UNDERFS_OBS_UPLOAD_MEMORY_BUFFERS_MAX));
+    } else {
+      mBufferPool = null;
+    }
+    if (conf.getInt(OBSPropertyKey.UNDERFS_OBS_READ_PREFETCH_CHUNKS) > 0) {
+      mPrefetchExecutor = Executors.newFixedThreadPool(
+          conf.getInt(OBSPropertyKey.UNDERFS_OBS_READ_PREFETCH_THREADS),
+          ThreadFactoryUtils.build("obs-read-prefetch-%d", true));
+    } else {
+      mPrefetchExecutor = null;
+    }
+    mListingFanOut = conf.getInt(OBSPropertyKey.UNDERFS_OBS_LISTING_FANOUT);
+    long statusCacheSize = conf.getInt(OBSPropertyKey.UNDERFS_OBS_STATUS_CACHE_SIZE);
+    if (statusCacheSize > 0) {
+      mStatusCache = CacheBuilder.newBuilder().maximumSize(statusCacheSize)
+          .expireAfterWrite(conf.getMs(OBSPropertyKey.UNDERFS_OBS_STATUS_CACHE_TTL),
+              TimeUnit.MILLISECONDS)
+          .build();
+    } else {
+      mStatusCache = null;
+    }
+    if (conf.getBoolean(OBSPropertyKey.UNDERFS_OBS_STATUS_RESOLVER_ENABLED)) {
+      mStatusResolver = new OBSStatusResolver(mClient, mBucketName, mRetryHandler,
+          getListingChunkLength(conf),
+          conf.getInt(OBSPropertyKey.UNDERFS_OBS_STATUS_RESOLVER_SIZE),
+          conf.getMs(OBSPropertyKey.UNDERFS_OBS_STATUS_RESOLVER_TTL));
+    } else {
+      mStatusResolver = null;
+    }
+    if (conf.getBoolean(OBSPropertyKey.UNDERFS_OBS_UPLOAD_ASYNC_ENABLED)) {
+      mAsyncUploadExecutor = Executors.newFixedThreadPool(
+          conf.getInt(OBSPropertyKey.UNDERFS_OBS_UPLOAD_ASYNC_THREADS),
+          ThreadFactoryUtils.build("obs-upload-async-%d", true));
+      mAsyncUploader = new OBSAsyncUploader(mAsyncUploadExecutor,
+          conf.getBytes(OBSPropertyKey.UNDERFS_OBS_UPLOAD_ASYNC_BYTES_MAX),
+          this::invalidateStatus);
+    } else {
+      mAsyncUploadExecutor = null;
+      mAsyncUploader = null;
+    }
+    mNativeRename = conf.getBoolean(OBSPropertyKey.UNDERFS_OBS_NATIVE_RENAME_ENABLED)
+        && isFileSystemBucket();
+  }
+
+  /**
+   * Detects whether the bucket is a parallel file system bucket, which supports renaming files
+   * and directories natively.
+   *
+   * @return whether the bucket is a parallel file system bucket
+   */
+  private boolean isFileSystemBucket() {
+    try {
+      GetBucketFSStatusResult result = mRetryHandler.retry("getBucketFSStatus",
+          () -> mClient.getBucketFSStatus(new GetBucketFSStatusRequest(mBucketName)));
+      boolean fileSystem = result != null && result.getStatus() == FSStatusEnum.ENABLED;
+      LOG.debug("Bucket {} is {}a parallel file system bucket", mBucketName,
+          fileSystem ? "" : "not ");
+      return fileSystem;
+    } catch (ObsException e) {
+      LOG.warn("Failed to get the type of bucket {}, renames are done by copying: {}",
+          mBucketName, e.toString());
+      return false;
+    }
   }
 
   @Override
   public void cleanup() {}
 
+  @Override
+  public void close() throws IOException {
+    if (mClosed.getAndSet(true)) {
+      return;
+    }
+    IOException uploadFailure = null;
+    if (mAsyncUploader != null) {
+      try {
+        mAsyncUploader.awaitPendingUploads();
+      } catch (IOException e) {
+        LOG.error("Failed to upload files closed before the UFS was closed", e);
+        uploadFailure = e;
+      }
+      mAsyncUploadExecutor.shutdownNow();
+    }
+    if (mPrefetchExecutor != null) {
+      mPrefetchExecutor.shutdownNow();
+    }
+    synchronized (this) {
+      for (ExecutorService executor : new ExecutorService[] {mUploadExecutor, mCopyExecutor,
+          mListingExecutor}) {
+        if (executor != null) {
+          executor.shutdownNow();
+        }
+      }
+    }
+    try {
+      OBSClientRegistry.get().release(mClient);
+    } finally {
+      super.close();
+    }
+    if (uploadFailure != null) {
+      throw uploadFailure;
+    }
+  }
+
+  /**
+   * @return the executor uploading the partitions of multipart uploads
+   */
+  private synchronized ExecutorService getUploadExecutor() {
+    if (mUploadExecutor == null) {
+      mUploadExecutor = newExecutor(OBSPropertyKey.UNDERFS_OBS_MULTIPART_UPLOAD_THREADS,
+          "obs-upload-partition-%d");
+    }
+    return mUploadExecutor;
+  }
+
+  /**
+   * @return the executor copying the objects of renamed directories
+   */
+  private synchronized ExecutorService getCopyExecutor() {
+    if (mCopyExecutor == null) {
+      mCopyExecutor = newExecutor(OBSPropertyKey.UNDERFS_OBS_COPY_THREADS, "obs-copy-%d");
+    }
+    return mCopyExecutor;
+  }
+
+  /**
+   * @return the executor fetching listing pages in the background
+   */
+  private synchronized ExecutorService getListingExecutor() {
+    if (mListingExecutor == null) {
+      mListingExecutor =
+          newExecutor(OBSPropertyKey.UNDERFS_OBS_LISTING_THREADS, "obs-listing-%d");
+    }
+    return mListingExecutor;
+  }
+
+  /**
+   * Creates an executor of this UFS, which fails the tasks submitted once the UFS is closed.
+   *
+   * @param threads the property of the number of threads
+   * @param nameFormat the name format of the threads
+   * @return the executor
+   */
+  @GuardedBy("this")
+  private ExecutorService newExecutor(PropertyKey threads, String nameFormat) {
+    ExecutorService executor = Executors.newFixedThreadPool(mUfsConf.getInt(threads),
+        ThreadFactoryUtils.build(nameFormat, true));
+    if (mClosed.get()) {
+      executor.shutdownNow();
+    }
+    return executor;
+  }
+
+  /**
+   * Waits for the background uploads of all files closed so far. Once it returns, their objects
+   * are durable in OBS. Does nothing if files are uploaded on close. A failed background upload
+   * is also reported once by the next file created.
+   *
+   * @throws IOException if a background upload failed since the last call
+   */
+  public void awaitPendingUploads() throws IOException {
+    if (mAsyncUploader != null) {
+      mAsyncUploader.awaitPendingUploads();
+    }
+  }
+
   @Override
   public String getUnderFSType() {
     return "obs";
@@ -111,11 +410,215 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
   @Override
   public void setMode(String path, short mode) throws IOException {}
 
+  /**
+   * Renames a file natively in a parallel file system bucket, or by copying and deleting it
+   * otherwise.
+   *
+   * @param src the source file path
+   * @param dst the destination file path
+   * @return true if the file was renamed
+   */
+  @Override
+  public boolean renameFile(String src, String dst) throws IOException {
+    if (!mNativeRename) {
+      return super.renameFile(src, dst);
+    }
+    awaitUpload(stripPrefixIfPresent(src));
+    awaitUpload(stripPrefixIfPresent(dst));
+    if (!isFile(src)) {
+      LOG.error("Unable to rename {} to {} because source does not exist or is a directory.",
+          src, dst);
+      return false;
+    }
+    if (exists(dst)) {
+      LOG.error("Unable to rename {} to {} because destination already exists.", src, dst);
+      return false;
+    }
+    String srcKey = stripPrefixIfPresent(src);
+    String dstKey = stripPrefixIfPresent(dst);
+    try {
+      mRetryHandler.retry("renameFile",
+          () -> mClient.renameFile(new RenameRequest(mBucketName, srcKey, dstKey)));
+      return true;
+    } catch (ObsException e) {
+      LOG.error("Failed to rename file {} to {}", src, dst, e);
+      return false;
+    } finally {
+      invalidateStatus(srcKey);
+      invalidateStatus(dstKey);
+    }
+  }
+
+  /**
+   * Renames a directory natively in a parallel file system bucket. Otherwise, renames it by
+   * copying its objects concurrently, and deleting the source objects with batch deletes once
+   * all copies succeeded. Objects larger than the copy partition size are copied with a
+   * multipart copy. The marker of the destination directory is created last, and if a copy
+   * fails, the copied objects are deleted, so the rename can be retried.
+   *
+   * @param src the source directory path
+   * @param dst the destination directory path
+   * @return true if the directory was renamed
+   */
+  @Override
+  public boolean renameDirectory(String src, String dst) throws IOException {
+    if (mNativeRename) {
+      return renameFolder(src, dst);
+    }
+    UfsStatus[] children = listStatus(src, ListOptions.defaults().setRecursive(true));
+    if (children == null) {
+      LOG.error("Failed to list directory {}, aborting rename.", src);
+      return false;
+    }
+    if (exists(dst)) {
+      LOG.error("Unable to rename {} to {} because destination already exists.", src, dst);
+      return false;
+    }
+    List<String> dstKeys = new ArrayList<>(children.length);
+    List<Future<Boolean>> copies = new ArrayList<>(children.length);
+    for (UfsStatus child : children) {
+      String srcKey = stripPrefixIfPresent(PathUtils.concatPath(src, child.getName()));
+      String dstKey = stripPrefixIfPresent(PathUtils.concatPath(dst, child.getName()));
+      if (child.isDirectory()) {
+        String dstFolder = convertToFolderName(dstKey);
+        dstKeys.add(dstFolder);
+        copies.add(getCopyExecutor().submit(() -> createEmptyObject(dstFolder)));
+      } else {
+        long length = ((UfsFileStatus) child).getContentLength();
+        dstKeys.add(dstKey);
+        copies.add(getCopyExecutor().submit(() -> copyObject(srcKey, dstKey, length)));
+      }
+    }
+    boolean copied = true;
+    try {
+      for (Future<Boolean> copy : copies) {
+        try {
+          copied = copy.get();
+        } catch (ExecutionException e) {
+          LOG.error("Failed to copy an object of {} to {}", src, dst, e.getCause());
+          copied = false;
+        }
+        if (!copied) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      discardCopies(copies, dstKeys);
+      throw new IOException(e);
+    }
+    if (copied) {
+      copied = createEmptyObject(convertToFolderName(stripPrefixIfPresent(dst)));
+    }
+    if (!copied) {
+      LOG.error("Failed to copy directory {} to {}, aborting rename.", src, dst);
+      discardCopies(copies, dstKeys);
+      return false;
+    }
+    return deleteDirectory(src, DeleteOptions.defaults().setRecursive(true));
+  }
+
+  /**
+   * Cancels the copies of a failed directory rename which have not started, waits for the
+   * others, and deletes the copied objects. The source is left intact, so the rename can be
+   * retried.
+   *
+   * @param copies the copies of the objects of the directory
+   * @param dstKeys the destination keys of the copies
+   */
+  private void discardCopies(List<Future<Boolean>> copies, List<String> dstKeys) {
+    for (Future<Boolean> copy : copies) {
+      copy.cancel(false);
+    }
+    for (Future<Boolean> copy : copies) {
+      if (!copy.isCancelled()) {
+        try {
+          Uninterruptibles.getUninterruptibly(copy);
+        } catch (ExecutionException e) {
+          // the rename has already failed
+        }
+      }
+    }
+    try {
+      List<String> deleted = deleteObjects(dstKeys);
+      if (deleted.size() < dstKeys.size()) {
+        LOG.warn("Failed to delete {} of the {} objects copied by a failed rename",
+            dstKeys.size() - deleted.size(), dstKeys.size());
+      }
+    } catch (IOException e) {
+      LOG.error("Failed to delete the objects copied by a failed rename", e);
+    }
+  }
+
+  /**
+   * Renames a directory with a single native rename of a parallel file system bucket.
+   *
+   * @param src the source directory path
+   * @param dst the destination directory path
+   * @return true if the directory was renamed
+   */
+  private boolean renameFolder(String src, String dst) throws IOException {
+    if (!isDirectory(src)) {
+      LOG.error("Unable to rename {} to {} because source does not exist or is a file.", src, dst);
+      return false;
+    }
+    if (exists(dst)) {
+      LOG.error("Unable to rename {} to {} because destination already exists.", src, dst);
+      return false;
+    }
+    String srcFolder = convertToFolderName(stripPrefixIfPresent(src));
+    String dstFolder = convertToFolderName(stripPrefixIfPresent(dst));
+    try {
+      mRetryHandler.retry("renameFolder",
+          () -> mClient.renameFolder(new RenameRequest(mBucketName, srcFolder, dstFolder)));
+      return true;
+    } catch (ObsException e) {
+      LOG.error("Failed to rename directory {} to {}", src, dst, e);
+      return false;
+    } finally {
+      invalidateStatuses(srcFolder);
+      invalidateStatuses(dstFolder);
+    }
+  }
+
+  /**
+   * Copies an object, with a multipart copy if it is larger than the copy partition size. Copying
+   * objects larger than 5GB needs a multipart copy.
+   *
+   * @param src the source key
+   * @param dst the destination key
+   * @return true if the object was copied
+   */
   @Override
   protected boolean copyObject(String src, String dst) {
+    try {
+      // A pending upload of the destination would replace the copy once it runs
+      awaitUpload(dst);
+    } catch (IOException e) {
+      LOG.error("Failed to copy {} to {}", src, dst, e);
+      return false;
+    }
+    ObjectStatus status = getObjectStatus(src);
+    if (status == null) {
+      // Let the copy request report the error
+      return copySingleObject(src, dst);
+    }
+    return copyObject(src, dst, status.getContentLength());
+  }
+
+  /**
+   * Copies an object with a single copy request.
+   *
+   * @param src the source key
+   * @param dst the destination key
+   * @return true if the object was copied
+   */
+  private boolean copySingleObject(String src, String dst) {
     try {
       LOG.debug("Copying {} to {}", src, dst);
-      mClient.copyObject(mBucketName, src, mBucketName, dst);
+      mRetryHandler.retry("copyObject",
+          () -> mClient.copyObject(mBucketName, src, mBucketName, dst));
+      invalidateStatus(dst);
       return true;
     } catch (ObsException e) {
       LOG.error("Failed to rename file {} to {}", src, dst, e);
@@ -123,12 +626,94 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
     }
   }
 
+  /**
+   * Copies an object of known size, with a multipart copy if it is larger than the copy
+   * partition size.
+   *
+   * @param src the source key
+   * @param dst the destination key
+   * @param length the size of the object
+   * @return true if the object was copied
+   */
+  private boolean copyObject(String src, String dst, long length) {
+    long partitionSize =
+        mUfsConf.getBytes(OBSPropertyKey.UNDERFS_OBS_MULTIPART_COPY_PARTITION_SIZE);
+    if (length <= partitionSize) {
+      return copySingleObject(src, dst);
+    }
+    LOG.debug("Copying {} to {} with multipart copy", src, dst);
+    String uploadId;
+    try {
+      uploadId = mRetryHandler.retry("initiateMultipartUpload",
+          () -> mClient.initiateMultipartUpload(
+              new InitiateMultipartUploadRequest(mBucketName, dst))).getUploadId();
+    } catch (ObsException e) {
+      LOG.error("Failed to initiate multipart copy of {} to {}", src, dst, e);
+      return false;
+    }
+    List<Future<PartEtag>> parts = new ArrayList<>();
+    try {
+      for (long start = 0; start < length; start += partitionSize) {
+        CopyPartRequest request = new CopyPartRequest();
+        request.setUploadId(uploadId);
+        request.setSourceBucketName(mBucketName);
+        request.setSourceObjectKey(src);
+        request.setDestinationBucketName(mBucketName);
+        request.setDestinationObjectKey(dst);
+        request.setByteRangeStart(start);
+        request.setByteRangeEnd(Math.min(start + partitionSize, length) - 1);
+        request.setPartNumber(parts.size() + 1);
+        // The parts go to the upload executor, whose tasks never wait for other tasks
+        parts.add(getUploadExecutor().submit(() -> {
+          CopyPartResult result =
+              mRetryHandler.retry("copyPart", () -> mClient.copyPart(request));
+          return new PartEtag(result.getEtag(), result.getPartNumber());
+        }));
+      }
+      List<PartEtag> partEtags = new ArrayList<>(parts.size());
+      for (Future<PartEtag> part : parts) {
+        partEtags.add(part.get());
+      }
+      mRetryHandler.retry("completeMultipartUpload", () -> mClient.completeMultipartUpload(
+          new CompleteMultipartUploadRequest(mBucketName, dst, uploadId, partEtags)));
+      invalidateStatus(dst);
+      return true;
+    } catch (InterruptedException | ExecutionException | ObsException e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      LOG.error("Failed to copy {} to {} with multipart copy {}", src, dst, uploadId, e);
+      // The parts which already started are left to finish, so none is copied after the abort
+      for (Future<PartEtag> part : parts) {
+        part.cancel(false);
+      }
+      for (Future<PartEtag> part : parts) {
+        if (!part.isCancelled()) {
+          try {
+            Uninterruptibles.getUninterruptibly(part);
+          } catch (ExecutionException partException) {
+            // the copy has already failed
+          }
+        }
+      }
+      try {
+        mRetryHandler.retry("abortMultipartUpload", () -> mClient.abortMultipartUpload(
+            new AbortMultipartUploadRequest(mBucketName, dst, uploadId)));
+      } catch (ObsException abortException) {
+        LOG.error("Failed to abort multipart copy {} of {}", uploadId, dst, abortException);
+      }
+      return false;
+    }
+  }
+
   @Override
   public boolean createEmptyObject(String key) {
     try {
       ObjectMetadata objMeta = new ObjectMetadata();
       objMeta.setContentLength(0L);
-      mClient.putObject(mBucketName, key, new ByteArrayInputStream(new byte[0]), objMeta);
+      mRetryHandler.retry("putObject", () -> mClient.putObject(mBucketName, key,
+          new ByteArrayInputStream(new byte[0]), objMeta));
+      invalidateStatus(key);
       return true;
     } catch (ObsException e) {
       LOG.error("Failed to create object: {}", key, e);
@@ -136,16 +721,47 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
     }
   }
 
+  @Override
+  public boolean supportsFlush() {
+    return mUfsConf.getBoolean(OBSPropertyKey.UNDERFS_OBS_APPEND_ENABLED);
+  }
+
   @Override
   protected OutputStream createObject(String key) throws IOException {
-    return new OBSOutputStream(mBucketName, key, mClient,
-        mUfsConf.getList(PropertyKey.TMP_DIRS, ","));
+    if (mAsyncUploader != null) {
+      // Surface the background uploads which failed once, since their files were already closed
+      mAsyncUploader.checkFailures();
+    }
+    OutputStream stream;
+    if (mUfsConf.getBoolean(OBSPropertyKey.UNDERFS_OBS_APPEND_ENABLED)) {
+      stream = new OBSAppendOutputStream(mBucketName, key, mClient,
+          (int) mUfsConf.getBytes(OBSPropertyKey.UNDERFS_OBS_APPEND_BUFFER_SIZE), mRetryHandler);
+    } else {
+      stream = new OBSOutputStream(mBucketName, key, mClient, mStagingDirs, mBufferPool,
+          getUploadExecutor(),
+          mUfsConf.getBytes(OBSPropertyKey.UNDERFS_OBS_MULTIPART_UPLOAD_PARTITION_SIZE),
+          mUfsConf.getBoolean(OBSPropertyKey.UNDERFS_OBS_UPLOAD_CHECKSUM_ENABLED), mRetryHandler,
+          mAsyncUploader,
+          mUfsConf.getInt(OBSPropertyKey.UNDERFS_OBS_MULTIPART_UPLOAD_PARTITIONS_MAX));
+    }
+    if (mStatusCache == null && mStatusResolver == null) {
+      return stream;
+    }
+    invalidateStatus(key);
+    return new StatusInvalidatingOutputStream(stream, key);
   }
 
   @Override
   protected boolean deleteObject(String key) {
     try {
-      mClient.deleteObject(mBucketName, key);
+      awaitUpload(key);
+    } catch (IOException e) {
+      LOG.error("Failed to delete {}", key, e);
+      return false;
+    }
+    try {
+      mRetryHandler.retry("deleteObject", () -> mClient.deleteObject(mBucketName, key));
+      invalidateStatus(key);
     } catch (ObsException e) {
       LOG.error("Failed to delete {}", key, e);
       return false;
@@ -153,6 +769,47 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
     return true;
   }
 
+  /**
+   * Deletes the keys with batch delete requests of up to {@link #MAX_DELETE_BATCH_SIZE} keys. The
+   * batches handed over by a recursive delete are already issued concurrently on the object store
+   * service threads.
+   *
+   * @param keys the keys to delete
+   * @return the keys that were deleted
+   */
+  @Override
+  protected List<String> deleteObjects(List<String> keys) throws IOException {
+    List<String> deleted = new ArrayList<>(keys.size());
+    for (int start = 0; start < keys.size(); start += MAX_DELETE_BATCH_SIZE) {
+      List<String> batch =
+          keys.subList(start, Math.min(start + MAX_DELETE_BATCH_SIZE, keys.size()));
+      KeyAndVersion[] keyAndVersions = new KeyAndVersion[batch.size()];
+      for (int i = 0; i < batch.size(); i++) {
+        keyAndVersions[i] = new KeyAndVersion(batch.get(i));
+      }
+      try {
+        DeleteObjectsResult result = mRetryHandler.retry("deleteObjects", () -> mClient
+            .deleteObjects(new DeleteObjectsRequest(mBucketName, false, keyAndVersions)));
+        if (result.getDeletedObjectResults() != null) {
+          for (DeleteObjectsResult.DeleteObjectResult success
+              : result.getDeletedObjectResults()) {
+            deleted.add(success.getObjectKey());
+            invalidateStatus(success.getObjectKey());
+          }
+        }
+        if (result.getErrorResults() != null) {
+          for (DeleteObjectsResult.ErrorResult error : result.getErrorResults()) {
+            LOG.error("Failed to delete {}: {} {}", error.getObjectKey(), error.getErrorCode(),
+                error.getMessage());
+          }
+        }
+      } catch (ObsException e) {
+        LOG.error("Failed to delete {} keys starting with {}", batch.size(), batch.get(0), e);
+      }
+    }
+    return deleted;
+  }
+
   @Override
   protected String getFolderSuffix() {
     return FOLDER_SUFFIX;
@@ -161,27 +818,50 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
   @Override
   protected ObjectListingChunk getObjectListingChunk(String key, boolean recursive)
       throws IOException {
-    String delimiter = recursive ? "" : PATH_SEPARATOR;
     key = PathUtils.normalizePath(key, PATH_SEPARATOR);
     // In case key is root (empty string) do not normalize prefix
     key = key.equals(PATH_SEPARATOR) ? "" : key;
+    if (recursive && mListingFanOut > 0) {
+      // List the top level with a delimiter, and each top level prefix recursively in parallel
+      ObjectListing result = getObjectListingChunk(newListRequest(key, PATH_SEPARATOR, null));
+      if (result != null) {
+        return new OBSObjectListingChunk(key, PATH_SEPARATOR, result, new FanOut());
+      }
+      return null;
+    }
+    String delimiter = recursive ? "" : PATH_SEPARATOR;
+    ObjectListing result = getObjectListingChunk(newListRequest(key, delimiter, null));
+    if (result != null) {
+      return new OBSObjectListingChunk(key, delimiter, result, null);
+    }
+    return null;
+  }
+
+  /**
+   * Creates the request of a page of a listing. Every page has its own request, so pages can be
+   * fetched concurrently.
+   *
+   * @param prefix the prefix of the listing
+   * @param delimiter the delimiter of the listing
+   * @param marker the key to list after, or null for the first page
+   * @return the request
+   */
+  private ListObjectsRequest newListRequest(String prefix, String delimiter, String marker) {
     ListObjectsRequest request = new ListObjectsRequest(mBucketName);
-    request.setPrefix(key);
+    request.setPrefix(prefix);
     request.setMaxKeys(getListingChunkLength(mUfsConf));
     request.setDelimiter(delimiter);
-
-    ObjectListing result = getObjectListingChunk(request);
-    if (result != null) {
-      return new OBSObjectListingChunk(request, result);
+    if (marker != null) {
+      request.setMarker(marker);
     }
-    return null;
+    return request;
   }
 
   // Get next chunk of listing result
   private ObjectListing getObjectListingChunk(ListObjectsRequest request) {
     ObjectListing result;
     try {
-      result = mClient.listObjects(request);
+      result = mRetryHandler.retry("listObjects", () -> mClient.listObjects(request));
     } catch (ObsException e) {
       LOG.error("Failed to list path {}", request.getPrefix(), e);
       result = null;
@@ -190,18 +870,49 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
   }
 
   /**
-   * Customized {@link ObjectListingChunk}.
+   * Fetches a page of a listing in the background.
+   *
+   * @param prefix the prefix of the listing
+   * @param delimiter the delimiter of the listing
+   * @param marker the key to list after, or null for the first page
+   * @return the page
+   */
+  private Future<ObjectListing> listAsync(String prefix, String delimiter, String marker) {
+    ListObjectsRequest request = newListRequest(prefix, delimiter, marker);
+    return getListingExecutor().submit(
+        () -> mRetryHandler.retry("listObjects", () -> mClient.listObjects(request)));
+  }
+
+  /**
+   * Customized {@link ObjectListingChunk}. The next page is fetched in the background as soon as
+   * this page is received.
    */
   private final class OBSObjectListingChunk implements ObjectListingChunk {
-    final ListObjectsRequest mRequest;
+    final String mPrefix;
+    final String mDelimiter;
     final ObjectListing mResult;
+    /** The next page of this listing, or null if this is the last page. */
+    final Future<ObjectListing> mNextPage;
+    /** The recursive listings of the top level prefixes, or null if not fanned out. */
+    final FanOut mFanOut;
 
-    OBSObjectListingChunk(ListObjectsRequest request, ObjectListing result) throws IOException {
-      mRequest = request;
+    OBSObjectListingChunk(String prefix, String delimiter, ObjectListing result, FanOut fanOut)
+        throws IOException {
+      mPrefix = prefix;
+      mDelimiter = delimiter;
       mResult = result;
+      mFanOut = fanOut;
       if (mResult == null) {
         throw new IOException("OBS listing result is null");
       }
+      mNextPage = mResult.isTruncated() ? listAsync(prefix, delimiter, mResult.getNextMarker())
+          : null;
+      if (mFanOut != null && !delimiter.isEmpty()) {
+        mFanOut.add(mResult.getCommonPrefixes());
+      }
+      if (mStatusResolver != null && !delimiter.isEmpty()) {
+        mStatusResolver.add(prefix, mResult);
+      }
     }
 
     @Override
@@ -218,38 +929,207 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
 
     @Override
     public String[] getCommonPrefixes() {
+      if (mFanOut != null) {
+        // The top level prefixes of a fanned out listing are listed recursively
+        return new String[0];
+      }
       List<String> res = mResult.getCommonPrefixes();
       return res.toArray(new String[res.size()]);
     }
 
     @Override
     public ObjectListingChunk getNextChunk() throws IOException {
-      if (mResult.isTruncated()) {
-        mRequest.setMarker(mResult.getNextMarker());
-        ObjectListing nextResult = mClient.listObjects(mRequest);
-        if (nextResult != null) {
-          return new OBSObjectListingChunk(mRequest, nextResult);
+      if (mNextPage != null) {
+        return new OBSObjectListingChunk(mPrefix, mDelimiter, await(mNextPage), mFanOut);
+      }
+      if (mFanOut != null) {
+        Pair<String, Future<ObjectListing>> next = mFanOut.next();
+        if (next != null) {
+          return new OBSObjectListingChunk(next.getFirst(), "", await(next.getSecond()),
+              mFanOut);
         }
       }
       return null;
     }
+
+    private ObjectListing await(Future<ObjectListing> page) throws IOException {
+      try {
+        return page.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * The recursive listings of the top level prefixes of a fanned out listing. Up to
+   * {@link OBSPropertyKey#UNDERFS_OBS_LISTING_FANOUT} prefixes are listed at the same time, and
+   * their pages are returned one prefix after another.
+   */
+  private final class FanOut {
+    /** Prefixes whose listing has not been started. */
+    private final Deque<String> mPending = new ArrayDeque<>();
+    /** Prefixes whose first page is being fetched, in listing order. */
+    private final Deque<Pair<String, Future<ObjectListing>>> mStarted = new ArrayDeque<>();
+
+    /**
+     * @param prefixes top level prefixes to list
+     */
+    void add(List<String> prefixes) {
+      if (prefixes != null) {
+        mPending.addAll(prefixes);
+      }
+      startPending();
+    }
+
+    /**
+     * @return the next prefix and its first page, or null if all prefixes have been listed
+     */
+    Pair<String, Future<ObjectListing>> next() {
+      Pair<String, Future<ObjectListing>> next = mStarted.pollFirst();
+      startPending();
+      return next;
+    }
+
+    private void startPending() {
+      while (mStarted.size() < mListingFanOut && !mPending.isEmpty()) {
+        String prefix = mPending.removeFirst();
+        mStarted.addLast(new Pair<>(prefix, listAsync(prefix, "", null)));
+      }
+    }
+  }
+
+  @Override
+  public boolean exists(String path) throws IOException {
+    OBSStatusResolver.Kind kind = resolve(path);
+    return kind == null ? super.exists(path) : kind.exists();
+  }
+
+  @Override
+  public boolean isDirectory(String path) throws IOException {
+    OBSStatusResolver.Kind kind = resolve(path);
+    return kind == null ? super.isDirectory(path) : kind.isDirectory();
+  }
+
+  @Override
+  public boolean isFile(String path) throws IOException {
+    OBSStatusResolver.Kind kind = resolve(path);
+    return kind == null ? super.isFile(path) : kind.isFile();
+  }
+
+  /**
+   * Resolves the kind of a path with the status resolver.
+   *
+   * @param path the path
+   * @return the kind of the path, or null if the resolver is disabled, the path is the root, or
+   *         the kind must be probed
+   */
+  private OBSStatusResolver.Kind resolve(String path) {
+    if (mStatusResolver == null || PathUtils.normalizePath(path, PATH_SEPARATOR)
+        .equals(PathUtils.normalizePath(getRootKey(), PATH_SEPARATOR))) {
+      return null;
+    }
+    String key = stripPrefixIfPresent(path);
+    try {
+      awaitUpload(key);
+    } catch (IOException e) {
+      LOG.warn("Failed to wait for the upload of {}, resolving its current kind", key, e);
+    }
+    return mStatusResolver.resolve(key);
   }
 
   @Override
   protected ObjectStatus getObjectStatus(String key) {
     try {
-      ObjectMetadata meta = mClient.getObjectMetadata(mBucketName, key);
-      if (meta == null) {
-        return null;
+      awaitUpload(key);
+    } catch (IOException e) {
+      LOG.warn("Failed to wait for the upload of {}, return null", key, e);
+      return null;
+    }
+    Optional<ObjectStatus> cached = getCachedStatus(key);
+    if (cached != null) {
+      return cached.orElse(null);
+    }
+    try {
+      ObjectMetadata meta = mRetryHandler.retry("getObjectMetadata",
+          () -> mClient.getObjectMetadata(mBucketName, key));
+      ObjectStatus status = meta == null ? null : new ObjectStatus(key, meta.getEtag(),
+          meta.getContentLength(), meta.getLastModified().getTime());
+      if (mStatusCache != null) {
+        mStatusCache.put(key, Optional.ofNullable(status));
       }
-      return new ObjectStatus(key, meta.getEtag(), meta.getContentLength(),
-          meta.getLastModified().getTime());
+      return status;
     } catch (ObsException e) {
+      if (mStatusCache != null && e.getResponseCode() == HttpStatus.SC_NOT_FOUND) {
+        mStatusCache.put(key, Optional.empty());
+      }
       LOG.warn("Failed to get Object {}, return null", key, e);
       return null;
     }
   }
 
+  /**
+   * Looks up the status of a key in the status cache.
+   *
+   * @param key the key
+   * @return the cached status, empty if the key is known not to exist, or null if the key is not
+   *         cached
+   */
+  private Optional<ObjectStatus> getCachedStatus(String key) {
+    if (mStatusCache == null) {
+      return null;
+    }
+    Optional<ObjectStatus> cached = mStatusCache.getIfPresent(key);
+    MetricsSystem.counter(cached == null ? STATUS_CACHE_MISSES_METRIC : STATUS_CACHE_HITS_METRIC)
+        .inc();
+    return cached;
+  }
+
+  /**
+   * Waits for the background uploads of a key, so it is read or changed only once the files
+   * closed before are written. Does nothing if files are uploaded on close.
+   *
+   * @param key the key
+   * @throws IOException if the wait was interrupted
+   */
+  private void awaitUpload(String key) throws IOException {
+    if (mAsyncUploader != null) {
+      mAsyncUploader.awaitUpload(key);
+    }
+  }
+
+  /**
+   * Drops the cached status of a key written or deleted through this UFS.
+   *
+   * @param key the key
+   */
+  private void invalidateStatus(String key) {
+    if (mStatusCache != null) {
+      mStatusCache.invalidate(key);
+    }
+    if (mStatusResolver != null) {
+      mStatusResolver.invalidate(key);
+    }
+  }
+
+  /**
+   * Invalidates the cached statuses of a directory and of everything under it.
+   *
+   * @param folder the key of the directory, with the folder suffix
+   */
+  private void invalidateStatuses(String folder) {
+    if (mStatusCache != null) {
+      String key = folder.substring(0, folder.length() - getFolderSuffix().length());
+      mStatusCache.asMap().keySet().removeIf(k -> k.equals(key) || k.startsWith(folder));
+    }
+    if (mStatusResolver != null) {
+      mStatusResolver.invalidateAll(folder);
+    }
+  }
+
   // No ACL integration currently, returns default empty value
   @Override
   protected ObjectPermissions getPermissions() {
@@ -262,12 +1142,67 @@ public class OBSUnderFileSystem extends ObjectUnderFileSystem {
   }
 
   @Override
-  protected InputStream openObject(String key, OpenOptions options, RetryPolicy retryPolicy) throws IOException {
+  protected InputStream openObject(String key, OpenOptions options, RetryPolicy retryPolicy)
+      throws IOException {
+    awaitUpload(key);
+    Optional<ObjectStatus> cached = getCachedStatus(key);
+    long contentLength = cached != null && cached.isPresent()
+        ? cached.get().getContentLength() : OBSInputStream.UNKNOWN_CONTENT_LENGTH;
+    return openObject(key, options, retryPolicy, contentLength);
+  }
+
+  /**
+   * Opens an object without a metadata request when the caller already knows its size, for
+   * example from its status. Otherwise the size is learned from the first range read.
+   *
+   * @param key the key of the object
+   * @param options the open options
+   * @param retryPolicy retry policy in case the key does not exist
+   * @param contentLength the size of the object, or
+   *        {@link OBSInputStream#UNKNOWN_CONTENT_LENGTH} if it is not known
+   * @return the input stream of the object
+   */
+  protected InputStream openObject(String key, OpenOptions options, RetryPolicy retryPolicy,
+      long contentLength) throws IOException {
+    awaitUpload(key);
+    boolean adaptive = mUfsConf.getBoolean(OBSPropertyKey.UNDERFS_OBS_READ_ADAPTIVE_RANGE_ENABLED);
     try {
-      return new OBSInputStream(mBucketName, key, mClient, options.getOffset(), retryPolicy,
-          mUfsConf.getBytes(PropertyKey.UNDERFS_OBJECT_STORE_MULTI_RANGE_CHUNK_SIZE));
+      return new OBSInputStream(mBucketName, key, mClient, options.getOffset(), contentLength,
+          retryPolicy, mUfsConf.getBytes(PropertyKey.UNDERFS_OBJECT_STORE_MULTI_RANGE_CHUNK_SIZE),
+          mPrefetchExecutor, mUfsConf.getInt(OBSPropertyKey.UNDERFS_OBS_READ_PREFETCH_CHUNKS),
+          (int) mUfsConf.getBytes(OBSPropertyKey.UNDERFS_OBS_READ_PREFETCH_BUFFER_SIZE),
+          mUfsConf.getMs(OBSPropertyKey.UNDERFS_OBS_READ_PREFETCH_TIMEOUT),
+          adaptive ? mUfsConf.getBytes(OBSPropertyKey.UNDERFS_OBS_READ_ADAPTIVE_RANGE_MIN) : 0,
+          mUfsConf.getBytes(OBSPropertyKey.UNDERFS_OBS_READ_ADAPTIVE_RANGE_MAX), mRetryHandler);
     } catch (ObsException e) {
       throw new IOException(e.getMessage());
     }
   }
+
+  /**
+   * Drops the cached status of the object written by a stream when the stream is closed, since
+   * the object is only created or replaced at that point.
+   */
+  private final class StatusInvalidatingOutputStream extends FilterOutputStream {
+    private final String mKey;
+
+    StatusInvalidatingOutputStream(OutputStream out, String key) {
+      super(out);
+      mKey = key;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        out.close();
+      } finally {
+        invalidateStatus(mKey);
+      }
+    }
+  }
 }
@@ -0,0 +1,409 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import com.obs.services.ObsClient;
+import com.obs.services.ObsConfiguration;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process stand-in for OBS, serving the object requests of the OBS UFS over HTTP.
+ *
+ * Objects are kept in memory. Single and multipart uploads, ranged and whole reads, metadata
+ * and deletes are supported, with path-style addressing and without authentication. Every
+ * request can be delayed by a fixed latency, bodies can be throttled to a bandwidth, and
+ * requests can be failed with a 503 at a given rate or a given number of times, to exercise
+ * range handling, retries and throughput over a real connection.
+ */
+public final class LocalOBSServer implements Closeable {
+  /** The size of the slices in which throttled bodies are sent and received. */
+  private static final int SLICE_SIZE = 64 * 1024;
+
+  private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+  private final HttpServer mServer;
+  private final ExecutorService mExecutor;
+
+  /** The objects by bucket and key. */
+  private final Map<String, byte[]> mObjects = new ConcurrentHashMap<>();
+  /** The uploaded parts of the pending multipart uploads, by upload id and part number. */
+  private final Map<String, ConcurrentSkipListMap<Integer, byte[]>> mUploads =
+      new ConcurrentHashMap<>();
+
+  /** The number of requests received. */
+  private final AtomicInteger mRequests = new AtomicInteger();
+  /** The number of upcoming requests to fail. */
+  private final AtomicInteger mFailures = new AtomicInteger();
+
+  private volatile long mLatencyMs;
+  private volatile long mBytesPerSecond;
+  private volatile double mErrorRate;
+
+  /**
+   * Starts a server on an ephemeral port of the loopback address.
+   */
+  public LocalOBSServer() throws IOException {
+    mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    mExecutor = Executors.newCachedThreadPool();
+    mServer.setExecutor(mExecutor);
+    mServer.createContext("/", this::handle);
+    mServer.start();
+  }
+
+  /**
+   * @return the port the server listens on
+   */
+  public int getPort() {
+    return mServer.getAddress().getPort();
+  }
+
+  /**
+   * Creates a client of this server. Its credentials are not checked.
+   *
+   * @return the client
+   */
+  public ObsClient createClient() {
+    ObsConfiguration conf = new ObsConfiguration();
+    conf.setEndPoint(mServer.getAddress().getHostString());
+    conf.setEndpointHttpPort(getPort());
+    conf.setHttpsOnly(false);
+    conf.setPathStyle(true);
+    return new ObsClient("accessKey", "secretKey", conf);
+  }
+
+  /**
+   * @param latencyMs the time every request is delayed by before it is served
+   */
+  public void setLatencyMs(long latencyMs) {
+    mLatencyMs = latencyMs;
+  }
+
+  /**
+   * @param bytesPerSecond the bandwidth of every request and response body, 0 for no limit
+   */
+  public void setBytesPerSecond(long bytesPerSecond) {
+    mBytesPerSecond = bytesPerSecond;
+  }
+
+  /**
+   * @param errorRate the fraction of requests failed with a 503
+   */
+  public void setErrorRate(double errorRate) {
+    mErrorRate = errorRate;
+  }
+
+  /**
+   * Fails the next requests with a 503.
+   *
+   * @param failures the number of requests to fail
+   */
+  public void failNextRequests(int failures) {
+    mFailures.set(failures);
+  }
+
+  /**
+   * @return the number of requests received
+   */
+  public int getRequestCount() {
+    return mRequests.get();
+  }
+
+  /**
+   * Stores an object without going through HTTP.
+   *
+   * @param bucket the bucket of the object
+   * @param key the key of the object
+   * @param data the content of the object
+   */
+  public void putObject(String bucket, String key, byte[] data) {
+    mObjects.put(bucket + "/" + key, data);
+  }
+
+  /**
+   * @param bucket the bucket of the object
+   * @param key the key of the object
+   * @return the content of the object, or null if it does not exist
+   */
+  public byte[] getObject(String bucket, String key) {
+    return mObjects.get(bucket + "/" + key);
+  }
+
+  @Override
+  public void close() {
+    mServer.stop(0);
+    mExecutor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      mRequests.incrementAndGet();
+      if (mLatencyMs > 0) {
+        Thread.sleep(mLatencyMs);
+      }
+      if (mFailures.getAndUpdate(n -> Math.max(n - 1, 0)) > 0
+          || (mErrorRate > 0 && ThreadLocalRandom.current().nextDouble() < mErrorRate)) {
+        readBody(exchange);
+        sendError(exchange, 503, "ServiceUnavailable");
+        return;
+      }
+      String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), "UTF-8");
+      // The object name is the path without its leading slash, as "bucket/key"
+      String name = path.substring(1);
+      Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+      switch (exchange.getRequestMethod()) {
+        case "HEAD":
+          headObject(exchange, name);
+          break;
+        case "GET":
+          getObject(exchange, name);
+          break;
+        case "PUT":
+          if (query.containsKey("partNumber")) {
+            uploadPart(exchange, query);
+          } else {
+            byte[] data = readBody(exchange);
+            mObjects.put(name, data);
+            sendEmpty(exchange, 200, data);
+          }
+          break;
+        case "POST":
+          if (query.containsKey("uploads")) {
+            initiateMultipartUpload(exchange, name);
+          } else {
+            completeMultipartUpload(exchange, name, query.get("uploadId"));
+          }
+          break;
+        case "DELETE":
+          readBody(exchange);
+          if (query.containsKey("uploadId")) {
+            mUploads.remove(query.get("uploadId"));
+          } else {
+            mObjects.remove(name);
+          }
+          sendEmpty(exchange, 204, null);
+          break;
+        default:
+          readBody(exchange);
+          sendError(exchange, 405, "MethodNotAllowed");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void headObject(HttpExchange exchange, String name) throws IOException {
+    byte[] data = mObjects.get(name);
+    if (data == null) {
+      exchange.sendResponseHeaders(404, -1);
+      return;
+    }
+    setObjectHeaders(exchange, data);
+    exchange.getResponseHeaders().set("Content-Length", String.valueOf(data.length));
+    exchange.sendResponseHeaders(200, -1);
+  }
+
+  private void getObject(HttpExchange exchange, String name)
+      throws IOException, InterruptedException {
+    byte[] data = mObjects.get(name);
+    if (data == null) {
+      sendError(exchange, 404, "NoSuchKey");
+      return;
+    }
+    setObjectHeaders(exchange, data);
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    if (range == null) {
+      exchange.sendResponseHeaders(200, data.length);
+      writeBody(exchange, data, 0, data.length);
+      return;
+    }
+    // Only a single range of the form "bytes=start-" or "bytes=start-end" is supported
+    String[] bounds = range.substring("bytes=".length()).split("-", -1);
+    long start = Long.parseLong(bounds[0]);
+    long end = bounds[1].isEmpty() ? data.length - 1
+        : Math.min(Long.parseLong(bounds[1]), data.length - 1);
+    if (start >= data.length) {
+      sendError(exchange, 416, "InvalidRange");
+      return;
+    }
+    int length = (int) (end - start + 1);
+    exchange.getResponseHeaders().set("Content-Range",
+        String.format("bytes %d-%d/%d", start, end, data.length));
+    exchange.sendResponseHeaders(206, length);
+    writeBody(exchange, data, (int) start, length);
+  }
+
+  private void uploadPart(HttpExchange exchange, Map<String, String> query)
+      throws IOException, InterruptedException {
+    byte[] data = readBody(exchange);
+    Map<Integer, byte[]> parts = mUploads.get(query.get("uploadId"));
+    if (parts == null) {
+      sendError(exchange, 404, "NoSuchUpload");
+      return;
+    }
+    parts.put(Integer.parseInt(query.get("partNumber")), data);
+    sendEmpty(exchange, 200, data);
+  }
+
+  private void initiateMultipartUpload(HttpExchange exchange, String name) throws IOException {
+    readBody(exchange);
+    String uploadId = UUID.randomUUID().toString();
+    mUploads.put(uploadId, new ConcurrentSkipListMap<>());
+    int separator = name.indexOf('/');
+    sendXml(exchange, 200, "<InitiateMultipartUploadResult>"
+        + "<Bucket>" + name.substring(0, separator) + "</Bucket>"
+        + "<Key>" + name.substring(separator + 1) + "</Key>"
+        + "<UploadId>" + uploadId + "</UploadId>"
+        + "</InitiateMultipartUploadResult>");
+  }
+
+  private void completeMultipartUpload(HttpExchange exchange, String name, String uploadId)
+      throws IOException {
+    readBody(exchange);
+    Map<Integer, byte[]> parts = uploadId == null ? null : mUploads.remove(uploadId);
+    if (parts == null) {
+      sendError(exchange, 404, "NoSuchUpload");
+      return;
+    }
+    ByteArrayOutputStream object = new ByteArrayOutputStream();
+    for (byte[] part : parts.values()) {
+      object.write(part);
+    }
+    byte[] data = object.toByteArray();
+    mObjects.put(name, data);
+    int separator = name.indexOf('/');
+    sendXml(exchange, 200, "<CompleteMultipartUploadResult>"
+        + "<Bucket>" + name.substring(0, separator) + "</Bucket>"
+        + "<Key>" + name.substring(separator + 1) + "</Key>"
+        + "<ETag>" + etag(data) + "</ETag>"
+        + "</CompleteMultipartUploadResult>");
+  }
+
+  private void setObjectHeaders(HttpExchange exchange, byte[] data) {
+    exchange.getResponseHeaders().set("ETag", etag(data));
+    exchange.getResponseHeaders().set("Last-Modified",
+        DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)));
+    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+  }
+
+  private void sendEmpty(HttpExchange exchange, int code, byte[] data) throws IOException {
+    if (data != null) {
+      exchange.getResponseHeaders().set("ETag", etag(data));
+    }
+    exchange.sendResponseHeaders(code, -1);
+  }
+
+  private void sendError(HttpExchange exchange, int code, String errorCode) throws IOException {
+    if ("HEAD".equals(exchange.getRequestMethod())) {
+      exchange.sendResponseHeaders(code, -1);
+      return;
+    }
+    sendXml(exchange, code, "<Error><Code>" + errorCode + "</Code>"
+        + "<Message>Injected by " + LocalOBSServer.class.getSimpleName() + "</Message>"
+        + "<RequestId>" + mRequests.get() + "</RequestId></Error>");
+  }
+
+  private void sendXml(HttpExchange exchange, int code, String xml) throws IOException {
+    byte[] body = (XML_HEADER + xml).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/xml");
+    exchange.sendResponseHeaders(code, body.length);
+    exchange.getResponseBody().write(body);
+  }
+
+  private byte[] readBody(HttpExchange exchange) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] slice = new byte[SLICE_SIZE];
+    try (InputStream in = exchange.getRequestBody()) {
+      int read;
+      while ((read = in.read(slice)) != -1) {
+        body.write(slice, 0, read);
+        throttle(read);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+    return body.toByteArray();
+  }
+
+  private void writeBody(HttpExchange exchange, byte[] data, int offset, int length)
+      throws IOException, InterruptedException {
+    OutputStream out = exchange.getResponseBody();
+    while (length > 0) {
+      int toWrite = Math.min(length, SLICE_SIZE);
+      out.write(data, offset, toWrite);
+      throttle(toWrite);
+      offset += toWrite;
+      length -= toWrite;
+    }
+  }
+
+  /**
+   * Sleeps for the time the given number of bytes takes at the configured bandwidth.
+   */
+  private void throttle(int bytes) throws InterruptedException {
+    long bytesPerSecond = mBytesPerSecond;
+    if (bytesPerSecond > 0) {
+      long nanos = bytes * 1_000_000_000L / bytesPerSecond;
+      Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+    }
+  }
+
+  private static String etag(byte[] data) {
+    return "\"" + Hex.encodeHexString(DigestUtils.md5(data)) + "\"";
+  }
+
+  private static Map<String, String> parseQuery(String query)
+      throws UnsupportedEncodingException {
+    Map<String, String> params = new HashMap<>();
+    if (query == null || query.isEmpty()) {
+      return params;
+    }
+    for (String param : query.split("&")) {
+      int separator = param.indexOf('=');
+      if (separator < 0) {
+        params.put(URLDecoder.decode(param, "UTF-8"), "");
+      } else {
+        params.put(URLDecoder.decode(param.substring(0, separator), "UTF-8"),
+            URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+      }
+    }
+    return params;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import alluxio.Constants;
+import alluxio.conf.AlluxioConfiguration;
+import alluxio.conf.InstancedConfiguration;
+import alluxio.conf.PropertyKey;
+import alluxio.retry.CountingRetry;
+import alluxio.util.ConfigurationUtils;
+import alluxio.util.io.BufferUtils;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.obs.services.ObsClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests the OBS streams against the {@link LocalOBSServer}, over HTTP.
+ */
+public class LocalOBSServerTest {
+  private static final AlluxioConfiguration CONF =
+      new InstancedConfiguration(ConfigurationUtils.defaults());
+
+  private static final String BUCKET_NAME = "bucket";
+  private static final String KEY = "key";
+  private static final int OBJECT_SIZE = 3 * Constants.MB / 2;
+  private static final long CHUNK_SIZE = Constants.MB / 2;
+
+  private LocalOBSServer mServer;
+  private ObsClient mClient;
+
+  /**
+   * Starts the server.
+   */
+  @Before
+  public void before() throws Exception {
+    mServer = new LocalOBSServer();
+    mClient = mServer.createClient();
+  }
+
+  /**
+   * Stops the server.
+   */
+  @After
+  public void after() throws Exception {
+    mClient.close();
+    mServer.close();
+  }
+
+  /**
+   * Tests that an object is read in ranges from a position.
+   */
+  @Test
+  public void readRanges() throws Exception {
+    byte[] data = BufferUtils.getIncreasingByteArray(OBJECT_SIZE);
+    mServer.putObject(BUCKET_NAME, KEY, data);
+    long position = CHUNK_SIZE / 2;
+
+    try (InputStream in = new OBSInputStream(BUCKET_NAME, KEY, mClient, position, OBJECT_SIZE,
+        new CountingRetry(1), CHUNK_SIZE)) {
+      byte[] read = ByteStreams.toByteArray(in);
+      Assert.assertEquals(OBJECT_SIZE - position, read.length);
+      Assert.assertTrue(BufferUtils.equalIncreasingByteArray((int) position, read.length, read));
+    }
+  }
+
+  /**
+   * Tests that a read failing with a transient error is retried.
+   */
+  @Test
+  public void retryRead() throws Exception {
+    byte[] data = BufferUtils.getIncreasingByteArray(OBJECT_SIZE);
+    mServer.putObject(BUCKET_NAME, KEY, data);
+    mServer.failNextRequests(2);
+
+    try (InputStream in = new OBSInputStream(BUCKET_NAME, KEY, mClient, 0, OBJECT_SIZE,
+        new CountingRetry(1), CHUNK_SIZE, null, 0, 0, 0, 0, 0, new OBSRetryHandler(2, 1, 1))) {
+      Assert.assertArrayEquals(data, ByteStreams.toByteArray(in));
+    }
+  }
+
+  /**
+   * Tests that positioned reads of one stream are served concurrently.
+   */
+  @Test
+  public void concurrentPositionedReads() throws Exception {
+    byte[] data = BufferUtils.getIncreasingByteArray(OBJECT_SIZE);
+    mServer.putObject(BUCKET_NAME, KEY, data);
+    int threads = 8;
+    int length = OBJECT_SIZE / threads;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (OBSInputStream in = new OBSInputStream(BUCKET_NAME, KEY, mClient, 0, OBJECT_SIZE,
+        new CountingRetry(1), CHUNK_SIZE)) {
+      List<Future<byte[]>> reads = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        long position = (long) i * length;
+        reads.add(executor.submit(() -> {
+          byte[] buffer = new byte[length];
+          Assert.assertEquals(length, in.positionedRead(position, buffer, 0, length));
+          return buffer;
+        }));
+      }
+      for (int i = 0; i < threads; i++) {
+        Assert.assertTrue(
+            BufferUtils.equalIncreasingByteArray(i * length, length, reads.get(i).get()));
+      }
+      Assert.assertEquals(-1, in.positionedRead(OBJECT_SIZE, new byte[1], 0, 1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests that an object larger than the partition size is uploaded with a multipart upload.
+   */
+  @Test
+  public void multipartUpload() throws Exception {
+    byte[] data = BufferUtils.getIncreasingByteArray(OBJECT_SIZE);
+
+    try (OutputStream out = new OBSOutputStream(BUCKET_NAME, KEY, mClient,
+        new OBSStagingDirs(CONF.getList(PropertyKey.TMP_DIRS, ",")), null,
+        MoreExecutors.newDirectExecutorService(), CHUNK_SIZE, true,
+        new OBSRetryHandler(0, 1, 1))) {
+      out.write(data);
+    }
+    Assert.assertArrayEquals(data, mServer.getObject(BUCKET_NAME, KEY));
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import com.obs.services.ObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.AppendObjectRequest;
+import com.obs.services.model.AppendObjectResult;
+import com.obs.services.model.ObjectMetadata;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for the {@link OBSAppendOutputStream}.
+ */
+public class OBSAppendOutputStreamTest {
+  private static final String BUCKET_NAME = "testBucketName";
+  private static final String KEY = "testKey";
+
+  private ObsClient mObsClient;
+  private List<Long> mPositions;
+  /** The length of the simulated object, or -1 if it does not exist. */
+  private long mLength;
+  /** Whether the response of the next append to the simulated object is lost. */
+  private boolean mLoseResponse;
+
+  /**
+   * Sets up a client which records the positions of the appends.
+   */
+  @Before
+  public void before() {
+    mObsClient = Mockito.mock(ObsClient.class);
+    mPositions = new ArrayList<>();
+    Mockito.when(mObsClient.appendObject(Mockito.any(AppendObjectRequest.class))).thenAnswer(
+        invocation -> {
+          AppendObjectRequest request = (AppendObjectRequest) invocation.getArguments()[0];
+          mPositions.add(request.getPosition());
+          AppendObjectResult result = Mockito.mock(AppendObjectResult.class);
+          Mockito.when(result.getNextPosition())
+              .thenReturn(request.getPosition() + request.getInput().available());
+          return result;
+        });
+  }
+
+  /**
+   * Tests that data is appended when the buffer is full and when the stream is flushed.
+   */
+  @Test
+  public void appendOnFullBufferAndFlush() throws IOException {
+    OBSAppendOutputStream stream = new OBSAppendOutputStream(BUCKET_NAME, KEY, mObsClient, 2,
+        new OBSRetryHandler(0, 1, 1));
+    stream.write(new byte[] {1, 2, 3});
+    Assert.assertEquals(1, mPositions.size());
+    stream.flush();
+    stream.close();
+    Assert.assertEquals(2, mPositions.size());
+    Assert.assertEquals(Long.valueOf(0), mPositions.get(0));
+    Assert.assertEquals(Long.valueOf(2), mPositions.get(1));
+  }
+
+  /**
+   * Tests that an append whose response was lost, and whose retry is rejected, is recognized as
+   * applied from the length of the object.
+   */
+  @Test
+  public void appendWithLostResponse() throws IOException {
+    simulateObject(-1);
+    OBSAppendOutputStream stream = new OBSAppendOutputStream(BUCKET_NAME, KEY, mObsClient, 2,
+        new OBSRetryHandler(1, 1, 1));
+    stream.write(new byte[] {1, 2});
+    mLoseResponse = true;
+    stream.write(new byte[] {3, 4, 5});
+    mLoseResponse = true;
+    stream.close();
+    Assert.assertEquals(5, mLength);
+    Mockito.verify(mObsClient, Mockito.never()).deleteObject(BUCKET_NAME, KEY);
+  }
+
+  /**
+   * Tests that the first append replaces an object which existed before the stream.
+   */
+  @Test
+  public void replaceExistingObject() throws IOException {
+    simulateObject(10);
+    OBSAppendOutputStream stream = new OBSAppendOutputStream(BUCKET_NAME, KEY, mObsClient, 2,
+        new OBSRetryHandler(1, 1, 1));
+    stream.write(new byte[] {1, 2, 3});
+    stream.close();
+    Assert.assertEquals(3, mLength);
+    Mockito.verify(mObsClient).deleteObject(BUCKET_NAME, KEY);
+  }
+
+  /**
+   * Tests that an append fails when another writer changed the object.
+   */
+  @Test
+  public void appendToObjectModifiedByOtherWriter() throws IOException {
+    simulateObject(-1);
+    OBSAppendOutputStream stream = new OBSAppendOutputStream(BUCKET_NAME, KEY, mObsClient, 2,
+        new OBSRetryHandler(1, 1, 1));
+    stream.write(new byte[] {1, 2});
+    stream.write(3);
+    mLength += 10;
+    try {
+      stream.close();
+      Assert.fail("Appending to an object modified by another writer should fail");
+    } catch (IOException e) {
+      // expected
+    }
+    Mockito.verify(mObsClient, Mockito.never()).deleteObject(BUCKET_NAME, KEY);
+  }
+
+  /**
+   * Simulates an appendable object, which rejects the appends not at its end.
+   *
+   * @param length the initial length of the object, or -1 if it does not exist
+   */
+  private void simulateObject(long length) {
+    mLength = length;
+    Mockito.doAnswer(invocation -> {
+      AppendObjectRequest request = (AppendObjectRequest) invocation.getArguments()[0];
+      long position = request.getPosition();
+      if (position != Math.max(mLength, 0)) {
+        throw error(409);
+      }
+      mLength = position + request.getInput().available();
+      if (mLoseResponse) {
+        mLoseResponse = false;
+        throw error(503);
+      }
+      AppendObjectResult result = Mockito.mock(AppendObjectResult.class);
+      Mockito.when(result.getNextPosition()).thenReturn(mLength);
+      return result;
+    }).when(mObsClient).appendObject(Mockito.any(AppendObjectRequest.class));
+    Mockito.doAnswer(invocation -> {
+      mLength = -1;
+      return null;
+    }).when(mObsClient).deleteObject(BUCKET_NAME, KEY);
+    Mockito.doAnswer(invocation -> {
+      ObjectMetadata metadata = new ObjectMetadata();
+      metadata.setContentLength(mLength);
+      return metadata;
+    }).when(mObsClient).getObjectMetadata(BUCKET_NAME, KEY);
+  }
+
+  private static ObsException error(int responseCode) {
+    ObsException e = Mockito.mock(ObsException.class);
+    Mockito.when(e.getResponseCode()).thenReturn(responseCode);
+    return e;
+  }
+
+  /**
+   * Tests that an empty object is created when nothing is written.
+   */
+  @Test
+  public void closeEmpty() throws IOException {
+    new OBSAppendOutputStream(BUCKET_NAME, KEY, mObsClient, 2, new OBSRetryHandler(0, 1, 1))
+        .close();
+    Assert.assertEquals(1, mPositions.size());
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Unit tests for the {@link OBSAsyncUploader}.
+ */
+public class OBSAsyncUploaderTest {
+  private static final long MAX_BYTES = 10;
+
+  private ExecutorService mExecutor;
+  private ExecutorService mWriters;
+  private List<String> mUploaded;
+
+  /**
+   * Set up.
+   */
+  @Before
+  public void before() {
+    mExecutor = Executors.newFixedThreadPool(2);
+    mWriters = Executors.newSingleThreadExecutor();
+    mUploaded = new CopyOnWriteArrayList<>();
+  }
+
+  /**
+   * Shuts the executors down.
+   */
+  @After
+  public void after() {
+    mExecutor.shutdownNow();
+    mWriters.shutdownNow();
+  }
+
+  /**
+   * Tests that an upload waits while the budget is used up by earlier uploads.
+   */
+  @Test
+  public void backpressure() throws Exception {
+    OBSAsyncUploader uploader = new OBSAsyncUploader(mExecutor, MAX_BYTES, mUploaded::add);
+    CountDownLatch release = new CountDownLatch(1);
+    uploader.submit("first", 8, () -> Uninterruptibles.awaitUninterruptibly(release));
+
+    Future<?> second = mWriters.submit(() -> {
+      uploader.submit("second", 8, () -> { });
+      return null;
+    });
+    try {
+      second.get(100, TimeUnit.MILLISECONDS);
+      Assert.fail("The upload should wait for the budget");
+    } catch (TimeoutException e) {
+      // expected
+    }
+
+    release.countDown();
+    second.get();
+    uploader.awaitPendingUploads();
+    Assert.assertEquals(2, mUploaded.size());
+  }
+
+  /**
+   * Tests that an upload larger than the budget runs once no other upload is pending.
+   */
+  @Test
+  public void uploadLargerThanBudget() throws Exception {
+    OBSAsyncUploader uploader = new OBSAsyncUploader(mExecutor, MAX_BYTES, mUploaded::add);
+
+    uploader.submit("large", 2 * MAX_BYTES, () -> { });
+    uploader.awaitPendingUploads();
+    Assert.assertEquals("large", mUploaded.get(0));
+  }
+
+  /**
+   * Tests that a failed upload is reported once to the writers, without failing the new uploads,
+   * and by the next wait for the pending uploads.
+   */
+  @Test
+  public void reportFailure() throws Exception {
+    OBSAsyncUploader uploader = new OBSAsyncUploader(MoreExecutors.newDirectExecutorService(),
+        MAX_BYTES, mUploaded::add);
+    uploader.submit("failed", 1, () -> {
+      throw new IOException("upload failed");
+    });
+    uploader.submit("uploaded", 1, () -> { });
+
+    try {
+      uploader.checkFailures();
+      Assert.fail("The failed upload should be reported");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("failed"));
+    }
+    uploader.checkFailures();
+    try {
+      uploader.awaitPendingUploads();
+      Assert.fail("The failed upload should be reported until the pending uploads are awaited");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("failed"));
+      Assert.assertFalse(e.getMessage().contains("uploaded"));
+    }
+    uploader.awaitPendingUploads();
+    Assert.assertEquals(Arrays.asList("failed", "uploaded"), mUploaded);
+  }
+
+  /**
+   * Tests that waiting for the upload of a key waits only for the uploads of that key.
+   */
+  @Test
+  public void awaitUpload() throws Exception {
+    OBSAsyncUploader uploader = new OBSAsyncUploader(mExecutor, MAX_BYTES, mUploaded::add);
+    CountDownLatch release = new CountDownLatch(1);
+    uploader.submit("pending", 1, () -> Uninterruptibles.awaitUninterruptibly(release));
+
+    uploader.awaitUpload("other");
+    Future<?> wait = mWriters.submit(() -> {
+      uploader.awaitUpload("pending");
+      return null;
+    });
+    try {
+      wait.get(100, TimeUnit.MILLISECONDS);
+      Assert.fail("The wait should last until the key is uploaded");
+    } catch (TimeoutException e) {
+      // expected
+    }
+
+    release.countDown();
+    wait.get();
+    Assert.assertEquals(Arrays.asList("pending"), mUploaded);
+  }
+}
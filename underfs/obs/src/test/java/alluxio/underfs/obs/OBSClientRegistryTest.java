@@ -0,0 +1,53 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import alluxio.ConfigurationTestUtils;
+import alluxio.underfs.UnderFileSystemConfiguration;
+
+import com.google.common.collect.ImmutableMap;
+import com.obs.services.ObsClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * Unit tests for the {@link OBSClientRegistry}.
+ */
+public class OBSClientRegistryTest {
+  private static final String ACCESS_KEY = "accessKey";
+  private static final String SECRET_KEY = "secretKey";
+  private static final String END_POINT = "obs.example.com";
+
+  /**
+   * Tests that mounts with the same settings share a client until the last one releases it.
+   */
+  @Test
+  public void shareClient() throws IOException {
+    OBSClientRegistry registry = new OBSClientRegistry();
+    UnderFileSystemConfiguration conf =
+        UnderFileSystemConfiguration.defaults(ConfigurationTestUtils.defaults());
+
+    ObsClient client = registry.acquire(ACCESS_KEY, SECRET_KEY, END_POINT, conf);
+    Assert.assertSame(client, registry.acquire(ACCESS_KEY, SECRET_KEY, END_POINT, conf));
+    Assert.assertNotSame(client, registry.acquire(ACCESS_KEY, SECRET_KEY, END_POINT,
+        conf.createMountSpecificConf(
+            ImmutableMap.of(OBSPropertyKey.Name.UNDERFS_OBS_CONNECT_MAX, "1"))));
+
+    registry.release(client);
+    Assert.assertSame(client, registry.acquire(ACCESS_KEY, SECRET_KEY, END_POINT, conf));
+    registry.release(client);
+    registry.release(client);
+    Assert.assertNotSame(client, registry.acquire(ACCESS_KEY, SECRET_KEY, END_POINT, conf));
+  }
+}
@@ -14,9 +14,14 @@ package alluxio.underfs.obs;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import alluxio.conf.AlluxioConfiguration;
@@ -25,8 +30,11 @@ import alluxio.conf.PropertyKey;
 import alluxio.retry.CountingRetry;
 import alluxio.util.ConfigurationUtils;
 
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.obs.services.ObsClient;
 import com.obs.services.model.GetObjectRequest;
+import com.obs.services.model.ObjectMetadata;
 import com.obs.services.model.S3Object;
 import org.junit.Before;
 import org.junit.Rule;
@@ -38,6 +46,11 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Unit tests for the {@link OBSInputStream}.
@@ -117,4 +130,96 @@ public class OBSInputStreamTest {
     mOBSInputStream.skip(1);
     assertEquals(3, mOBSInputStream.read());
   }
+
+  @Test
+  public void openWithoutMetadataRequest() throws IOException {
+    assertEquals(1, mOBSInputStream.read());
+    verify(mObsClient, never()).getObjectMetadata(anyString(), anyString());
+  }
+
+  @Test
+  public void prefetchNextRange() throws IOException {
+    OBSInputStream stream = new OBSInputStream(BUCKET_NAME, OBJECT_KEY, mObsClient, 0L,
+        OBSInputStream.UNKNOWN_CONTENT_LENGTH, new CountingRetry(1), 1L,
+        MoreExecutors.newDirectExecutorService(), 1, 8, 60000, 0, 0,
+        new OBSRetryHandler(0, 1, 1));
+    assertEquals(1, stream.read());
+    // The second range was opened along with the first one
+    verify(mObsClient, times(2)).getObject(any(GetObjectRequest.class));
+    assertEquals(2, stream.read());
+    verify(mObsClient, times(3)).getObject(any(GetObjectRequest.class));
+    assertEquals(3, stream.read());
+    stream.close();
+  }
+
+  @Test
+  public void openRangeWhosePrefetchHasNotStarted() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    CountDownLatch release = new CountDownLatch(1);
+    // Another stream occupies the prefetch thread
+    executor.submit(() -> Uninterruptibles.awaitUninterruptibly(release));
+    OBSInputStream stream = new OBSInputStream(BUCKET_NAME, OBJECT_KEY, mObsClient, 0L,
+        OBSInputStream.UNKNOWN_CONTENT_LENGTH, new CountingRetry(1), 1L, executor, 1, 8, 60000, 0,
+        0, new OBSRetryHandler(0, 1, 1));
+    try {
+      assertEquals(1, stream.read());
+      // The reader opens the second range instead of waiting for its queued prefetch
+      assertEquals(2, stream.read());
+      verify(mObsClient, times(2)).getObject(any(GetObjectRequest.class));
+      // The queued prefetch of the third range is dropped by the executor
+      executor.shutdownNow();
+      assertEquals(3, stream.read());
+      verify(mObsClient, times(3)).getObject(any(GetObjectRequest.class));
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+      stream.close();
+    }
+  }
+
+  @Test
+  public void adaptiveRanges() throws IOException {
+    OBSInputStream stream = new OBSInputStream(BUCKET_NAME, OBJECT_KEY, mObsClient, 0L,
+        OBSInputStream.UNKNOWN_CONTENT_LENGTH, new CountingRetry(1), 1L, null, 0, 0, 0, 1L, 2L,
+        new OBSRetryHandler(0, 1, 1));
+    assertEquals(1, stream.read());
+    // The sequential read doubles the second range, which serves the next two chunks
+    assertEquals(2, stream.read());
+    assertEquals(3, stream.read());
+    verify(mObsClient, times(2)).getObject(any(GetObjectRequest.class));
+    assertEquals(3L, stream.getBytesRequested());
+    assertEquals(3L, stream.getBytesConsumed());
+    stream.close();
+  }
+
+  @Test
+  public void adaptiveRangesAfterSeek() throws IOException {
+    OBSInputStream stream = new OBSInputStream(BUCKET_NAME, OBJECT_KEY, mObsClient, 0L,
+        OBSInputStream.UNKNOWN_CONTENT_LENGTH, new CountingRetry(1), 1L, null, 0, 0, 0, 1L, 2L,
+        new OBSRetryHandler(0, 1, 1));
+    assertEquals(1, stream.read());
+    stream.skip(1);
+    assertEquals(3, stream.read());
+    // The range opened after the seek has the minimum size again
+    verify(mObsClient).getObject(argThat(new ArgumentMatcher<GetObjectRequest>() {
+      @Override
+      public boolean matches(Object argument) {
+        GetObjectRequest request = (GetObjectRequest) argument;
+        return request.getRangeStart() == 2L && request.getRangeEnd() == 2L;
+      }
+    }));
+    stream.close();
+  }
+
+  @Test
+  public void parseContentLength() {
+    ObjectMetadata meta = mock(ObjectMetadata.class);
+    Map<String, Object> headers = new HashMap<>();
+    headers.put("content-range", "bytes 0-2/3");
+    when(meta.getResponseHeaders()).thenReturn(headers);
+    assertEquals(3L, OBSInputStream.parseContentLength(meta));
+
+    headers.put("content-range", "bytes 0-2/*");
+    assertEquals(OBSInputStream.UNKNOWN_CONTENT_LENGTH, OBSInputStream.parseContentLength(meta));
+  }
 }
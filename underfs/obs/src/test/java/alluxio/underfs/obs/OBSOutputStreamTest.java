@@ -11,19 +11,31 @@
 
 package alluxio.underfs.obs;
 
+import alluxio.Constants;
 import alluxio.conf.AlluxioConfiguration;
 import alluxio.conf.InstancedConfiguration;
 import alluxio.conf.PropertyKey;
 import alluxio.util.ConfigurationUtils;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.obs.services.ObsClient;
 import com.obs.services.exception.ObsException;
+import com.obs.services.model.CompleteMultipartUploadRequest;
+import com.obs.services.model.InitiateMultipartUploadRequest;
+import com.obs.services.model.InitiateMultipartUploadResult;
 import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.UploadPartRequest;
+import com.obs.services.model.UploadPartResult;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -37,7 +49,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.DigestOutputStream;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Unit tests for the {@link OBSOutputStream}.
@@ -47,7 +65,13 @@ public class OBSOutputStreamTest {
   private static AlluxioConfiguration sConf =
       new InstancedConfiguration(ConfigurationUtils.defaults());
 
+  private static final long PARTITION_SIZE = Constants.MB;
+
+  private static final OBSRetryHandler RETRY_HANDLER = new OBSRetryHandler(0, 1, 1);
+
   private ObsClient mObsClient;
+  private ExecutorService mExecutor;
+  private OBSStagingDirs mStagingDirs;
   private File mFile;
   private BufferedOutputStream mLocalOutputStream;
 
@@ -57,12 +81,20 @@ public class OBSOutputStreamTest {
   @Rule
   public final ExpectedException mThrown = ExpectedException.none();
 
+  /**
+   * The staging directory of the tests checking the partition files.
+   */
+  @Rule
+  public final TemporaryFolder mFolder = new TemporaryFolder();
+
   /**
    * Sets the properties and configuration before each test runs.
    */
   @Before
   public void before() throws Exception {
     mObsClient = Mockito.mock(ObsClient.class);
+    mExecutor = MoreExecutors.newDirectExecutorService();
+    mStagingDirs = new OBSStagingDirs(sConf.getList(PropertyKey.TMP_DIRS, ","));
     mFile = Mockito.mock(File.class);
     mLocalOutputStream = Mockito.mock(BufferedOutputStream.class);
   }
@@ -80,7 +112,7 @@ public class OBSOutputStreamTest {
     mThrown.expect(IOException.class);
     mThrown.expectMessage(errorMessage);
     new OBSOutputStream("testBucketName", "testKey", mObsClient,
-        sConf.getList(PropertyKey.TMP_DIRS, ",")).close();
+        mStagingDirs, null, mExecutor, PARTITION_SIZE, false, RETRY_HANDLER).close();
   }
 
   /**
@@ -89,12 +121,10 @@ public class OBSOutputStreamTest {
   @Test
   @PrepareForTest(OBSOutputStream.class)
   public void testWrite1() throws Exception {
-    PowerMockito.whenNew(BufferedOutputStream.class)
-            .withArguments(Mockito.any(DigestOutputStream.class)).thenReturn(mLocalOutputStream);
     PowerMockito.whenNew(BufferedOutputStream.class)
             .withArguments(Mockito.any(FileOutputStream.class)).thenReturn(mLocalOutputStream);
     OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
-        sConf.getList(PropertyKey.TMP_DIRS, ","));
+        mStagingDirs, null, mExecutor, PARTITION_SIZE, false, RETRY_HANDLER);
     stream.write(1);
     stream.close();
     Mockito.verify(mLocalOutputStream).write(1);
@@ -107,12 +137,10 @@ public class OBSOutputStreamTest {
   @Test
   @PrepareForTest(OBSOutputStream.class)
   public void testWrite2() throws Exception {
-    PowerMockito.whenNew(BufferedOutputStream.class)
-            .withArguments(Mockito.any(DigestOutputStream.class)).thenReturn(mLocalOutputStream);
     PowerMockito.whenNew(BufferedOutputStream.class)
             .withArguments(Mockito.any(FileOutputStream.class)).thenReturn(mLocalOutputStream);
     OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
-        sConf.getList(PropertyKey.TMP_DIRS, ","));
+        mStagingDirs, null, mExecutor, PARTITION_SIZE, false, RETRY_HANDLER);
     byte[] b = new byte[1];
     stream.write(b, 0, 1);
     stream.close();
@@ -125,12 +153,10 @@ public class OBSOutputStreamTest {
   @Test
   @PrepareForTest(OBSOutputStream.class)
   public void testWrite3() throws Exception {
-    PowerMockito.whenNew(BufferedOutputStream.class)
-            .withArguments(Mockito.any(DigestOutputStream.class)).thenReturn(mLocalOutputStream);
     PowerMockito.whenNew(BufferedOutputStream.class)
             .withArguments(Mockito.any(FileOutputStream.class)).thenReturn(mLocalOutputStream);
     OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
-        sConf.getList(PropertyKey.TMP_DIRS, ","));
+        mStagingDirs, null, mExecutor, PARTITION_SIZE, false, RETRY_HANDLER);
     byte[] b = new byte[1];
     stream.write(b);
     stream.close();
@@ -154,12 +180,33 @@ public class OBSOutputStreamTest {
                     Mockito.any(InputStream.class), Mockito.any(ObjectMetadata.class)))
             .thenThrow(new ObsException(errorMessage));
     OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
-        sConf.getList(PropertyKey.TMP_DIRS, ","));
+        mStagingDirs, null, mExecutor, PARTITION_SIZE, false, RETRY_HANDLER);
     mThrown.expect(IOException.class);
     mThrown.expectMessage(errorMessage);
     stream.close();
   }
 
+  /**
+   * Tests to ensure the local file is deleted when the upload fails.
+   */
+  @Test
+  public void testCloseErrorDeletesFile() throws Exception {
+    Mockito.when(mObsClient.putObject(Mockito.anyString(), Mockito.anyString(),
+        Mockito.any(InputStream.class), Mockito.any(ObjectMetadata.class)))
+        .thenThrow(new ObsException("upload failed"));
+    OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
+        new OBSStagingDirs(Collections.singletonList(mFolder.getRoot().getPath())), null,
+        mExecutor, PARTITION_SIZE, true, RETRY_HANDLER);
+    stream.write(new byte[Constants.KB]);
+    try {
+      stream.close();
+      Assert.fail("Closing a stream whose upload failed should fail");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertEquals(0, mFolder.getRoot().list().length);
+  }
+
   /**
    * Tests to ensure {@link File#delete()} is called when close the stream.
    */
@@ -173,7 +220,7 @@ public class OBSOutputStreamTest {
     PowerMockito.whenNew(FileInputStream.class).withArguments(mFile).thenReturn(inputStream);
 
     OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
-        sConf.getList(PropertyKey.TMP_DIRS, ","));
+        mStagingDirs, null, mExecutor, PARTITION_SIZE, false, RETRY_HANDLER);
     stream.close();
     Mockito.verify(mFile).delete();
   }
@@ -185,11 +232,202 @@ public class OBSOutputStreamTest {
   @PrepareForTest(OBSOutputStream.class)
   public void testFlush() throws Exception {
     PowerMockito.whenNew(BufferedOutputStream.class)
-            .withArguments(Mockito.any(DigestOutputStream.class)).thenReturn(mLocalOutputStream);
+            .withArguments(Mockito.any(FileOutputStream.class)).thenReturn(mLocalOutputStream);
     OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
-        sConf.getList(PropertyKey.TMP_DIRS, ","));
+        mStagingDirs, null, mExecutor, PARTITION_SIZE, false, RETRY_HANDLER);
     stream.flush();
     stream.close();
     Mockito.verify(mLocalOutputStream).flush();
   }
+
+  /**
+   * Tests to ensure an object larger than the partition size is uploaded with a multipart upload.
+   */
+  @Test
+  public void testMultipartUpload() throws Exception {
+    InitiateMultipartUploadResult initResult = Mockito.mock(InitiateMultipartUploadResult.class);
+    Mockito.when(initResult.getUploadId()).thenReturn("uploadId");
+    Mockito.when(mObsClient.initiateMultipartUpload(
+        Mockito.any(InitiateMultipartUploadRequest.class))).thenReturn(initResult);
+    UploadPartResult partResult = Mockito.mock(UploadPartResult.class);
+    Mockito.when(partResult.getEtag()).thenReturn("etag");
+    Mockito.when(mObsClient.uploadPart(Mockito.any(UploadPartRequest.class)))
+        .thenReturn(partResult);
+
+    OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
+        mStagingDirs, null, mExecutor, PARTITION_SIZE, true, RETRY_HANDLER);
+    stream.write(new byte[(int) (PARTITION_SIZE * 5 / 2)]);
+    stream.close();
+
+    ArgumentCaptor<UploadPartRequest> parts = ArgumentCaptor.forClass(UploadPartRequest.class);
+    Mockito.verify(mObsClient, Mockito.times(3)).uploadPart(parts.capture());
+    // Every part carries the MD5 of its own data
+    for (UploadPartRequest part : parts.getAllValues()) {
+      Assert.assertEquals(new String(Base64.encodeBase64(
+          DigestUtils.md5(new byte[(int) (long) part.getPartSize()]))), part.getContentMd5());
+    }
+    Mockito.verify(mObsClient).completeMultipartUpload(
+        Mockito.any(CompleteMultipartUploadRequest.class));
+    Mockito.verify(mObsClient, Mockito.never()).putObject(Mockito.anyString(),
+        Mockito.anyString(), Mockito.any(InputStream.class), Mockito.any(ObjectMetadata.class));
+  }
+
+  /**
+   * Tests to ensure the writer waits for the oldest partition once the maximum number of
+   * partitions are in flight.
+   */
+  @Test
+  public void testPartitionsInFlight() throws Exception {
+    mockInitiateMultipartUpload();
+    CountDownLatch uploading = new CountDownLatch(1);
+    UploadPartResult partResult = Mockito.mock(UploadPartResult.class);
+    Mockito.when(mObsClient.uploadPart(Mockito.any(UploadPartRequest.class))).thenAnswer(
+        invocation -> {
+          uploading.await();
+          return partResult;
+        });
+    ExecutorService uploadExecutor = Executors.newSingleThreadExecutor();
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    try {
+      OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
+          mStagingDirs, null, uploadExecutor, PARTITION_SIZE, false, RETRY_HANDLER, null, 1);
+      Future<?> written = writer.submit(() -> {
+        stream.write(new byte[(int) (PARTITION_SIZE * 5 / 2)]);
+        return null;
+      });
+      try {
+        written.get(100, TimeUnit.MILLISECONDS);
+        Assert.fail("The writer should wait for the first partition");
+      } catch (TimeoutException e) {
+        // expected
+      }
+
+      uploading.countDown();
+      written.get();
+      stream.close();
+      Mockito.verify(mObsClient, Mockito.times(3)).uploadPart(
+          Mockito.any(UploadPartRequest.class));
+    } finally {
+      writer.shutdownNow();
+      uploadExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests to ensure the files of the partitions still queued when a multipart upload is aborted
+   * are deleted.
+   */
+  @Test
+  public void testAbortDeletesQueuedPartitions() throws Exception {
+    mockInitiateMultipartUpload();
+    CountDownLatch uploading = new CountDownLatch(1);
+    Mockito.when(mObsClient.uploadPart(Mockito.any(UploadPartRequest.class))).thenAnswer(
+        invocation -> {
+          uploading.await();
+          throw new ObsException("upload failed");
+        });
+    ExecutorService uploadExecutor = Executors.newSingleThreadExecutor();
+    try {
+      OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
+          new OBSStagingDirs(Collections.singletonList(mFolder.getRoot().getPath())), null,
+          uploadExecutor, PARTITION_SIZE, false, RETRY_HANDLER);
+      stream.write(new byte[(int) (PARTITION_SIZE * 7 / 2)]);
+      uploading.countDown();
+      try {
+        stream.close();
+        Assert.fail("Closing a stream with a failed partition should fail");
+      } catch (IOException e) {
+        // expected
+      }
+      uploadExecutor.shutdown();
+      Assert.assertTrue(uploadExecutor.awaitTermination(10, TimeUnit.SECONDS));
+      Assert.assertEquals(0, mFolder.getRoot().list().length);
+    } finally {
+      uploadExecutor.shutdownNow();
+    }
+  }
+
+  private void mockInitiateMultipartUpload() {
+    InitiateMultipartUploadResult initResult = Mockito.mock(InitiateMultipartUploadResult.class);
+    Mockito.when(initResult.getUploadId()).thenReturn("uploadId");
+    Mockito.when(mObsClient.initiateMultipartUpload(
+        Mockito.any(InitiateMultipartUploadRequest.class))).thenReturn(initResult);
+  }
+
+  /**
+   * Tests to ensure an object which fits in a memory buffer is uploaded without a local file.
+   */
+  @Test
+  @PrepareForTest(OBSOutputStream.class)
+  public void testMemoryUpload() throws Exception {
+    PowerMockito.whenNew(FileOutputStream.class).withAnyArguments()
+        .thenThrow(new IOException("The object should not be staged on disk"));
+    OBSBufferPool bufferPool = new OBSBufferPool(Constants.KB, 1);
+    OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
+        mStagingDirs, bufferPool, mExecutor, PARTITION_SIZE, false, RETRY_HANDLER);
+    stream.write(new byte[Constants.KB]);
+    stream.close();
+
+    Mockito.verify(mObsClient).putObject(Mockito.eq("testBucketName"), Mockito.eq("testKey"),
+        Mockito.any(InputStream.class), Mockito.any(ObjectMetadata.class));
+    // The buffer is returned to the pool once the object is uploaded
+    Assert.assertNotNull(bufferPool.acquire());
+  }
+
+  /**
+   * Tests to ensure closing a stream with an asynchronous uploader returns before the object is
+   * uploaded.
+   */
+  @Test
+  @PrepareForTest(OBSOutputStream.class)
+  public void testAsyncClose() throws Exception {
+    CountDownLatch uploading = new CountDownLatch(1);
+    Mockito.when(mObsClient.putObject(Mockito.eq("testBucketName"), Mockito.eq("testKey"),
+        Mockito.any(InputStream.class), Mockito.any(ObjectMetadata.class))).thenAnswer(
+            invocation -> {
+              uploading.await();
+              return null;
+            });
+    ExecutorService uploadExecutor = Executors.newSingleThreadExecutor();
+    OBSAsyncUploader uploader =
+        new OBSAsyncUploader(uploadExecutor, Constants.MB, key -> { });
+    OBSBufferPool bufferPool = new OBSBufferPool(Constants.KB, 1);
+    try {
+      OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
+          mStagingDirs, bufferPool, mExecutor, PARTITION_SIZE, false, RETRY_HANDLER, uploader,
+          1);
+      stream.write(new byte[Constants.KB]);
+      stream.close();
+      // The buffer is held until the object is uploaded
+      Assert.assertNull(bufferPool.acquire());
+
+      uploading.countDown();
+      uploader.awaitPendingUploads();
+      Mockito.verify(mObsClient).putObject(Mockito.eq("testBucketName"), Mockito.eq("testKey"),
+          Mockito.any(InputStream.class), Mockito.any(ObjectMetadata.class));
+      Assert.assertNotNull(bufferPool.acquire());
+    } finally {
+      uploadExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests to ensure an object outgrowing its memory buffer is staged on disk.
+   */
+  @Test
+  @PrepareForTest(OBSOutputStream.class)
+  public void testMemoryBufferSpill() throws Exception {
+    PowerMockito.whenNew(BufferedOutputStream.class)
+        .withArguments(Mockito.any(FileOutputStream.class)).thenReturn(mLocalOutputStream);
+    OBSBufferPool bufferPool = new OBSBufferPool(Constants.KB, 1);
+    OBSOutputStream stream = new OBSOutputStream("testBucketName", "testKey", mObsClient,
+        mStagingDirs, bufferPool, mExecutor, PARTITION_SIZE, false, RETRY_HANDLER);
+    stream.write(new byte[Constants.KB]);
+    stream.write(1);
+
+    Mockito.verify(mLocalOutputStream).write(Mockito.any(byte[].class), Mockito.eq(0),
+        Mockito.eq(Constants.KB));
+    Mockito.verify(mLocalOutputStream).write(1);
+    Assert.assertNotNull(bufferPool.acquire());
+  }
 }
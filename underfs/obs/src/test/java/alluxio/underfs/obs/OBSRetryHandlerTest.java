@@ -0,0 +1,116 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import alluxio.metrics.MetricsSystem;
+
+import com.obs.services.ObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ObjectMetadata;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Unit tests for the {@link OBSRetryHandler}.
+ */
+public class OBSRetryHandlerTest {
+  private static final String BUCKET_NAME = "bucket";
+  private static final String KEY = "key";
+
+  private ObsClient mClient;
+  private OBSRetryHandler mRetryHandler;
+
+  /**
+   * Set up.
+   */
+  @Before
+  public void before() {
+    mClient = Mockito.mock(ObsClient.class);
+    mRetryHandler = new OBSRetryHandler(2, 1, 1);
+  }
+
+  /**
+   * Tests that a request failing with a transient error is retried.
+   */
+  @Test
+  public void retryTransientError() {
+    ObjectMetadata meta = new ObjectMetadata();
+    Mockito.when(mClient.getObjectMetadata(BUCKET_NAME, KEY))
+        .thenThrow(error(503)).thenReturn(meta);
+
+    Assert.assertSame(meta, mRetryHandler.retry("getObjectMetadata",
+        () -> mClient.getObjectMetadata(BUCKET_NAME, KEY)));
+    Mockito.verify(mClient, Mockito.times(2)).getObjectMetadata(BUCKET_NAME, KEY);
+  }
+
+  /**
+   * Tests that a request failing with a client error is not retried.
+   */
+  @Test
+  public void noRetryOnNotFound() {
+    ObsException notFound = error(404);
+    Mockito.when(mClient.getObjectMetadata(BUCKET_NAME, KEY)).thenThrow(notFound);
+
+    try {
+      mRetryHandler.retry("getObjectMetadata", () -> mClient.getObjectMetadata(BUCKET_NAME, KEY));
+      Assert.fail("Expected the request to fail");
+    } catch (ObsException e) {
+      Assert.assertSame(notFound, e);
+    }
+    Mockito.verify(mClient).getObjectMetadata(BUCKET_NAME, KEY);
+  }
+
+  /**
+   * Tests that the last error is thrown once the retries are exhausted.
+   */
+  @Test
+  public void retriesExhausted() {
+    Mockito.when(mClient.getObjectMetadata(BUCKET_NAME, KEY)).thenThrow(error(500));
+
+    try {
+      mRetryHandler.retry("getObjectMetadata", () -> mClient.getObjectMetadata(BUCKET_NAME, KEY));
+      Assert.fail("Expected the request to fail");
+    } catch (ObsException e) {
+      Assert.assertEquals(500, e.getResponseCode());
+    }
+    Mockito.verify(mClient, Mockito.times(3)).getObjectMetadata(BUCKET_NAME, KEY);
+  }
+
+  /**
+   * Tests that every attempt is timed and counted by response code, and that the bytes of the
+   * successful attempt are counted.
+   */
+  @Test
+  public void instrumentAttempts() {
+    String operation = "instrumentedGetObjectMetadata";
+    Mockito.when(mClient.getObjectMetadata(BUCKET_NAME, KEY))
+        .thenThrow(error(503)).thenReturn(new ObjectMetadata());
+
+    mRetryHandler.retry(operation, 10, () -> mClient.getObjectMetadata(BUCKET_NAME, KEY));
+    Assert.assertEquals(2,
+        MetricsSystem.timer(OBSRetryHandler.getRequestMetricName(operation)).getCount());
+    Assert.assertEquals(1, MetricsSystem.counter(
+        OBSRetryHandler.getResponseMetricName(operation, 503)).getCount());
+    Assert.assertEquals(1, MetricsSystem.counter(
+        OBSRetryHandler.getResponseMetricName(operation, 200)).getCount());
+    Assert.assertEquals(10,
+        MetricsSystem.counter(OBSRetryHandler.getBytesMetricName(operation)).getCount());
+  }
+
+  private static ObsException error(int responseCode) {
+    ObsException e = Mockito.mock(ObsException.class);
+    Mockito.when(e.getResponseCode()).thenReturn(responseCode);
+    return e;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import com.obs.services.ObsClient;
+import com.obs.services.exception.ObsException;
+import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.S3Object;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for the {@link OBSStatusResolver}.
+ */
+public class OBSStatusResolverTest {
+  private static final String BUCKET_NAME = "bucket";
+
+  private ObsClient mClient;
+  private OBSStatusResolver mResolver;
+
+  /**
+   * Set up.
+   */
+  @Before
+  public void before() {
+    mClient = Mockito.mock(ObsClient.class);
+    mResolver = new OBSStatusResolver(mClient, BUCKET_NAME, new OBSRetryHandler(0, 1, 1), 1000,
+        100, 60000);
+  }
+
+  /**
+   * Tests that a key is resolved as a file, a directory, both or missing with one listing, and
+   * that the keys sharing its prefix are resolved by the same listing.
+   */
+  @Test
+  public void resolveWithOneListing() {
+    ObjectListing listing = listing(false, Arrays.asList("dir/a", "dir/ab", "dir/ac"),
+        Arrays.asList("dir/ab/", "dir/ad/"));
+    Mockito.when(mClient.listObjects(Matchers.any(ListObjectsRequest.class)))
+        .thenReturn(listing);
+
+    Assert.assertEquals(OBSStatusResolver.Kind.FILE, mResolver.resolve("dir/a"));
+    Assert.assertEquals(OBSStatusResolver.Kind.FILE_AND_DIRECTORY, mResolver.resolve("dir/ab"));
+    Assert.assertEquals(OBSStatusResolver.Kind.FILE, mResolver.resolve("dir/ac"));
+    Assert.assertEquals(OBSStatusResolver.Kind.DIRECTORY, mResolver.resolve("dir/ad/"));
+    Mockito.verify(mClient).listObjects(Matchers.any(ListObjectsRequest.class));
+
+    Assert.assertEquals(OBSStatusResolver.Kind.MISSING, mResolver.resolve("dir/e"));
+    Mockito.verify(mClient, Mockito.times(2)).listObjects(Matchers.any(ListObjectsRequest.class));
+  }
+
+  /**
+   * Tests that the children of a listed directory are resolved without a request.
+   */
+  @Test
+  public void resolveListedChildren() {
+    mResolver.add("dir/", listing(false, Arrays.asList("dir/", "dir/a"),
+        Collections.singletonList("dir/b/")));
+
+    Assert.assertEquals(OBSStatusResolver.Kind.DIRECTORY, mResolver.resolve("dir"));
+    Assert.assertEquals(OBSStatusResolver.Kind.FILE, mResolver.resolve("dir/a"));
+    Assert.assertEquals(OBSStatusResolver.Kind.DIRECTORY, mResolver.resolve("dir/b"));
+    Mockito.verify(mClient, Mockito.never()).listObjects(Matchers.any(ListObjectsRequest.class));
+  }
+
+  /**
+   * Tests that a truncated listing which does not reach the folder of the key is completed by a
+   * listing of the folder.
+   */
+  @Test
+  public void resolveTruncated() {
+    List<ListObjectsRequest> requests = new ArrayList<>();
+    Mockito.when(mClient.listObjects(Matchers.any(ListObjectsRequest.class))).thenAnswer(
+        invocation -> {
+          ListObjectsRequest request = (ListObjectsRequest) invocation.getArguments()[0];
+          requests.add(request);
+          return request.getPrefix().equals("a")
+              ? listing(true, Arrays.asList("a", "a-1"), Collections.emptyList())
+              : listing(false, Collections.singletonList("a/b"), Collections.emptyList());
+        });
+
+    Assert.assertEquals(OBSStatusResolver.Kind.FILE_AND_DIRECTORY, mResolver.resolve("a"));
+    Assert.assertEquals(2, requests.size());
+    Assert.assertEquals("a/", requests.get(1).getPrefix());
+  }
+
+  /**
+   * Tests that a failed listing leaves the key to be probed.
+   */
+  @Test
+  public void resolveOnServiceException() {
+    Mockito.when(mClient.listObjects(Matchers.any(ListObjectsRequest.class)))
+        .thenThrow(ObsException.class);
+
+    Assert.assertNull(mResolver.resolve("key"));
+  }
+
+  /**
+   * Tests that invalidating a key drops the kinds of its ancestors, and that invalidating a
+   * directory drops the kinds of its children.
+   */
+  @Test
+  public void invalidate() {
+    mResolver.add("a/", listing(false, Collections.singletonList("a/f"),
+        Collections.singletonList("a/b/")));
+    mResolver.add("a/b/", listing(false, Collections.singletonList("a/b/f"),
+        Collections.emptyList()));
+    ObjectListing empty = listing(false, Collections.emptyList(), Collections.emptyList());
+    Mockito.when(mClient.listObjects(Matchers.any(ListObjectsRequest.class))).thenReturn(empty);
+
+    mResolver.invalidate("a/b/f");
+    Assert.assertEquals(OBSStatusResolver.Kind.FILE, mResolver.resolve("a/f"));
+    Assert.assertEquals(OBSStatusResolver.Kind.MISSING, mResolver.resolve("a/b"));
+    Mockito.verify(mClient).listObjects(Matchers.any(ListObjectsRequest.class));
+
+    mResolver.invalidateAll("a/");
+    Assert.assertEquals(OBSStatusResolver.Kind.MISSING, mResolver.resolve("a/f"));
+    Mockito.verify(mClient, Mockito.times(2)).listObjects(Matchers.any(ListObjectsRequest.class));
+  }
+
+  private static ObjectListing listing(boolean truncated, List<String> keys,
+      List<String> prefixes) {
+    List<S3Object> objects = new ArrayList<>();
+    for (String key : keys) {
+      S3Object object = new S3Object();
+      object.setObjectKey(key);
+      objects.add(object);
+    }
+    ObjectListing listing = Mockito.mock(ObjectListing.class);
+    Mockito.when(listing.isTruncated()).thenReturn(truncated);
+    Mockito.when(listing.getObjectSummaries()).thenReturn(objects);
+    Mockito.when(listing.getCommonPrefixes()).thenReturn(prefixes);
+    return listing;
+  }
+}
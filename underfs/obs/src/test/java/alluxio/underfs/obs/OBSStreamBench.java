@@ -0,0 +1,245 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.obs;
+
+import alluxio.Constants;
+import alluxio.conf.InstancedConfiguration;
+import alluxio.conf.PropertyKey;
+import alluxio.retry.CountingRetry;
+import alluxio.util.ConfigurationUtils;
+import alluxio.util.ThreadFactoryUtils;
+
+import com.obs.services.ObsClient;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the OBS streams against a {@link LocalOBSServer}, across chunk
+ * sizes and with injected latency and bandwidth limits.
+ *
+ * The {@code mBytes} counter reports the throughput in bytes per second. Run it with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=alluxio.underfs.obs.OBSStreamBench}, or from an IDE.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class OBSStreamBench {
+  private static final String BUCKET_NAME = "bench";
+  private static final String KEY = "object";
+  private static final int OBJECT_SIZE = 64 * Constants.MB;
+  private static final int RANDOM_READ_SIZE = 64 * Constants.KB;
+  private static final int WRITE_SIZE = Constants.MB;
+
+  /**
+   * The server, the client and the object read by the benchmarks.
+   */
+  @State(Scope.Benchmark)
+  public static class BenchState {
+    /** The size of the ranges read, and of the partitions of multipart uploads. */
+    @Param({"1048576", "8388608", "67108864"})
+    public long mChunkSize;
+
+    /** The latency of every request, in milliseconds. */
+    @Param({"0", "20"})
+    public long mLatencyMs;
+
+    /** The bandwidth of every request, in bytes per second, 0 for no limit. */
+    @Param({"0", "104857600"})
+    public long mBytesPerSecond;
+
+    private LocalOBSServer mServer;
+    private ObsClient mClient;
+    private ExecutorService mUploadExecutor;
+    private OBSStagingDirs mStagingDirs;
+    private OBSRetryHandler mRetryHandler;
+    private byte[] mData;
+    /** The stream shared by the threads of the positioned read benchmark. */
+    private OBSInputStream mSharedStream;
+
+    /**
+     * Starts the server and stores the object read by the benchmarks.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+      mServer = new LocalOBSServer();
+      mServer.setLatencyMs(mLatencyMs);
+      mServer.setBytesPerSecond(mBytesPerSecond);
+      mClient = mServer.createClient();
+      mUploadExecutor = Executors.newFixedThreadPool(8,
+          ThreadFactoryUtils.build("obs-bench-upload-%d", true));
+      mStagingDirs = new OBSStagingDirs(new InstancedConfiguration(ConfigurationUtils.defaults())
+          .getList(PropertyKey.TMP_DIRS, ","));
+      mRetryHandler = new OBSRetryHandler(0, 1, 1);
+      mData = new byte[OBJECT_SIZE];
+      new Random(0).nextBytes(mData);
+      mServer.putObject(BUCKET_NAME, KEY, mData);
+      mSharedStream = new OBSInputStream(BUCKET_NAME, KEY, mClient, 0, OBJECT_SIZE,
+          new CountingRetry(1), mChunkSize);
+    }
+
+    /**
+     * Stops the server.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+      mSharedStream.close();
+      mUploadExecutor.shutdownNow();
+      mClient.close();
+      mServer.close();
+    }
+  }
+
+  /**
+   * The settings of the upload benchmark.
+   */
+  @State(Scope.Benchmark)
+  public static class UploadState {
+    /** Whether the MD5 of every part is computed and sent. */
+    @Param({"true", "false"})
+    public boolean mChecksumEnabled;
+  }
+
+  /**
+   * The number of bytes transferred, reported as a throughput.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Bytes {
+    /** The bytes transferred during the iteration. */
+    public long mBytes;
+
+    /**
+     * Resets the counter before every iteration.
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+      mBytes = 0;
+    }
+  }
+
+  /**
+   * Reads the whole object sequentially.
+   *
+   * @param state the benchmark state
+   * @param bytes the bytes counter
+   */
+  @Benchmark
+  public void sequentialRead(BenchState state, Bytes bytes) throws Exception {
+    byte[] buffer = new byte[WRITE_SIZE];
+    try (InputStream in = new OBSInputStream(BUCKET_NAME, KEY, state.mClient, 0, OBJECT_SIZE,
+        new CountingRetry(1), state.mChunkSize)) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        bytes.mBytes += read;
+      }
+    }
+  }
+
+  /**
+   * Reads a small range at a random position of the object.
+   *
+   * @param state the benchmark state
+   * @param bytes the bytes counter
+   */
+  @Benchmark
+  public void randomRead(BenchState state, Bytes bytes) throws Exception {
+    byte[] buffer = new byte[RANDOM_READ_SIZE];
+    long position = ThreadLocalRandom.current().nextLong(OBJECT_SIZE - RANDOM_READ_SIZE);
+    try (InputStream in = new OBSInputStream(BUCKET_NAME, KEY, state.mClient, position,
+        OBJECT_SIZE, new CountingRetry(1), state.mChunkSize)) {
+      int offset = 0;
+      int read;
+      while (offset < buffer.length
+          && (read = in.read(buffer, offset, buffer.length - offset)) != -1) {
+        offset += read;
+      }
+      bytes.mBytes += offset;
+    }
+  }
+
+  /**
+   * Reads a block at a random position of the object through a stream shared by all threads,
+   * as parallel block caching of one object does. Run it with several threads, for example
+   * {@code -t 8}, to measure how it scales.
+   *
+   * @param state the benchmark state
+   * @param bytes the bytes counter
+   */
+  @Benchmark
+  public void positionedRead(BenchState state, Bytes bytes) throws Exception {
+    int length = (int) Math.min(state.mChunkSize, OBJECT_SIZE);
+    byte[] buffer = new byte[length];
+    long position = ThreadLocalRandom.current().nextLong(OBJECT_SIZE - length + 1);
+    bytes.mBytes += state.mSharedStream.positionedRead(position, buffer, 0, length);
+  }
+
+  /**
+   * Uploads the object, in partitions of the chunk size.
+   *
+   * @param state the benchmark state
+   * @param uploadState the upload settings
+   * @param bytes the bytes counter
+   */
+  @Benchmark
+  public void upload(BenchState state, UploadState uploadState, Bytes bytes) throws Exception {
+    String key = KEY + "-" + Thread.currentThread().getId();
+    try (OutputStream out = new OBSOutputStream(BUCKET_NAME, key, state.mClient,
+        state.mStagingDirs, null, state.mUploadExecutor, state.mChunkSize,
+        uploadState.mChecksumEnabled, state.mRetryHandler)) {
+      for (int offset = 0; offset < OBJECT_SIZE; offset += WRITE_SIZE) {
+        out.write(state.mData, offset, WRITE_SIZE);
+      }
+    }
+    bytes.mBytes += OBJECT_SIZE;
+  }
+
+  /**
+   * Runs the benchmarks.
+   *
+   * @param args the names of the benchmarks to run, all if empty
+   */
+  public static void main(String[] args) throws Exception {
+    OptionsBuilder options = new OptionsBuilder();
+    if (args.length == 0) {
+      options.include(OBSStreamBench.class.getSimpleName());
+    }
+    for (String benchmark : args) {
+      options.include(OBSStreamBench.class.getSimpleName() + "." + benchmark);
+    }
+    new Runner(options.build()).run();
+  }
+}
@@ -14,20 +14,49 @@ package alluxio.underfs.obs;
 import alluxio.AlluxioURI;
 import alluxio.ConfigurationTestUtils;
 import alluxio.conf.InstancedConfiguration;
+import alluxio.underfs.UfsStatus;
 import alluxio.underfs.UnderFileSystemConfiguration;
 import alluxio.underfs.options.DeleteOptions;
 import alluxio.util.ConfigurationUtils;
 
+import com.google.common.collect.ImmutableMap;
 import com.obs.services.ObsClient;
+import com.obs.services.ObsConfiguration;
 import com.obs.services.exception.ObsException;
+import com.obs.services.model.CompleteMultipartUploadRequest;
+import com.obs.services.model.CopyPartRequest;
+import com.obs.services.model.CopyPartResult;
+import com.obs.services.model.DeleteObjectsRequest;
+import com.obs.services.model.DeleteObjectsResult;
+import com.obs.services.model.InitiateMultipartUploadRequest;
+import com.obs.services.model.InitiateMultipartUploadResult;
+import com.obs.services.model.KeyAndVersion;
 import com.obs.services.model.ListObjectsRequest;
+import com.obs.services.model.ObjectMetadata;
+import com.obs.services.model.ObjectListing;
+import com.obs.services.model.S3Object;
+import com.obs.services.model.fs.FSStatusEnum;
+import com.obs.services.model.fs.GetBucketFSStatusRequest;
+import com.obs.services.model.fs.GetBucketFSStatusResult;
+import com.obs.services.model.fs.RenameRequest;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Unit tests for the {@link OBSUnderFileSystem}.
@@ -36,6 +65,7 @@ public class OBSUnderFileSystemTest {
 
   private OBSUnderFileSystem mOBSUnderFileSystem;
   private ObsClient mClient;
+  private final List<OBSUnderFileSystem> mUfses = new ArrayList<>();
 
   private static final String PATH = "path";
   private static final String SRC = "src";
@@ -50,8 +80,31 @@ public class OBSUnderFileSystemTest {
   public void before() throws InterruptedException, ObsException {
     mClient = Mockito.mock(ObsClient.class);
 
-    mOBSUnderFileSystem = new OBSUnderFileSystem(new AlluxioURI(""), mClient, BUCKET_NAME,
-        UnderFileSystemConfiguration.defaults(ConfigurationTestUtils.defaults()));
+    mOBSUnderFileSystem = createUfs(Collections.emptyMap());
+  }
+
+  /**
+   * Closes the UFS instances created by the test.
+   */
+  @After
+  public void after() throws IOException {
+    for (OBSUnderFileSystem ufs : mUfses) {
+      ufs.close();
+    }
+  }
+
+  /**
+   * Creates a UFS closed after the test.
+   *
+   * @param properties the mount specific properties
+   * @return the UFS
+   */
+  private OBSUnderFileSystem createUfs(Map<String, String> properties) {
+    OBSUnderFileSystem ufs = new OBSUnderFileSystem(new AlluxioURI(""), mClient, BUCKET_NAME,
+        UnderFileSystemConfiguration.defaults(ConfigurationTestUtils.defaults())
+            .createMountSpecificConf(properties));
+    mUfses.add(ufs);
+    return ufs;
   }
 
   /**
@@ -91,4 +144,312 @@ public class OBSUnderFileSystemTest {
     boolean result = mOBSUnderFileSystem.renameFile(SRC, DST);
     Assert.assertFalse(result);
   }
+
+  /**
+   * Test case for {@link OBSUnderFileSystem#renameDirectory(String, String)}.
+   */
+  @Test
+  public void renameDirectoryOnServiceException() throws IOException {
+    Mockito.when(mClient.listObjects(Matchers.any(ListObjectsRequest.class)))
+        .thenThrow(ObsException.class);
+
+    boolean result = mOBSUnderFileSystem.renameDirectory(SRC, DST);
+    Assert.assertFalse(result);
+    Mockito.verify(mClient, Mockito.never()).copyObject(Matchers.anyString(),
+        Matchers.anyString(), Matchers.anyString(), Matchers.anyString());
+  }
+
+  /**
+   * Test case for {@link OBSUnderFileSystem#deleteObjects(java.util.List)}.
+   */
+  @Test
+  public void deleteObjectsReturnsDeletedKeys() throws IOException {
+    DeleteObjectsResult.DeleteObjectResult success =
+        Mockito.mock(DeleteObjectsResult.DeleteObjectResult.class);
+    Mockito.when(success.getObjectKey()).thenReturn(SRC);
+    DeleteObjectsResult.ErrorResult error = Mockito.mock(DeleteObjectsResult.ErrorResult.class);
+    Mockito.when(error.getObjectKey()).thenReturn(DST);
+    DeleteObjectsResult result = Mockito.mock(DeleteObjectsResult.class);
+    Mockito.when(result.getDeletedObjectResults()).thenReturn(Collections.singletonList(success));
+    Mockito.when(result.getErrorResults()).thenReturn(Collections.singletonList(error));
+    Mockito.when(mClient.deleteObjects(Matchers.any(DeleteObjectsRequest.class)))
+        .thenReturn(result);
+
+    Assert.assertEquals(Collections.singletonList(SRC),
+        mOBSUnderFileSystem.deleteObjects(Arrays.asList(SRC, DST)));
+    Mockito.verify(mClient).deleteObjects(Matchers.any(DeleteObjectsRequest.class));
+  }
+
+  /**
+   * Test case for {@link OBSUnderFileSystem#createConfiguration}.
+   */
+  @Test
+  public void createConfiguration() {
+    UnderFileSystemConfiguration conf =
+        UnderFileSystemConfiguration.defaults(ConfigurationTestUtils.defaults())
+            .createMountSpecificConf(ImmutableMap.of(
+                OBSPropertyKey.Name.UNDERFS_OBS_CONNECT_MAX, "2048",
+                OBSPropertyKey.Name.UNDERFS_OBS_SOCKET_TIMEOUT, "10sec",
+                OBSPropertyKey.Name.UNDERFS_OBS_SOCKET_READ_BUFFER_SIZE, "1MB"));
+
+    ObsConfiguration obsConf = OBSUnderFileSystem.createConfiguration("endpoint", conf);
+    Assert.assertEquals("endpoint", obsConf.getEndPoint());
+    Assert.assertEquals(2048, obsConf.getMaxConnections());
+    Assert.assertEquals(10000, obsConf.getSocketTimeout());
+    Assert.assertEquals(1024 * 1024, obsConf.getSocketReadBufferSize());
+  }
+
+  /**
+   * Test case for {@link OBSUnderFileSystem#listStatus(String)} with several pages.
+   */
+  @Test
+  public void listPages() throws IOException {
+    ObjectListing first = Mockito.mock(ObjectListing.class);
+    Mockito.when(first.isTruncated()).thenReturn(true);
+    Mockito.when(first.getNextMarker()).thenReturn("marker");
+    Mockito.when(first.getCommonPrefixes()).thenReturn(Collections.singletonList(PATH + "/a/"));
+    ObjectListing second = Mockito.mock(ObjectListing.class);
+    Mockito.when(second.getCommonPrefixes()).thenReturn(Collections.singletonList(PATH + "/b/"));
+    List<ListObjectsRequest> requests = new CopyOnWriteArrayList<>();
+    Mockito.when(mClient.listObjects(Matchers.any(ListObjectsRequest.class))).thenAnswer(
+        invocation -> {
+          ListObjectsRequest request = (ListObjectsRequest) invocation.getArguments()[0];
+          requests.add(request);
+          return request.getMarker() == null ? first : second;
+        });
+
+    UfsStatus[] statuses = mOBSUnderFileSystem.listStatus(PATH);
+    Assert.assertEquals(2, statuses.length);
+    // Every page has its own request
+    Assert.assertEquals(2, requests.size());
+    Assert.assertNull(requests.get(0).getMarker());
+    Assert.assertEquals("marker", requests.get(1).getMarker());
+  }
+
+  /**
+   * Tests that object statuses are cached until the object is written through the UFS.
+   */
+  @Test
+  public void statusCache() throws IOException {
+    OBSUnderFileSystem ufs = createUfs(ImmutableMap.of(
+        OBSPropertyKey.Name.UNDERFS_OBS_STATUS_CACHE_SIZE, "100"));
+    ObjectMetadata meta = new ObjectMetadata();
+    meta.setContentLength(1L);
+    meta.setLastModified(new Date());
+    Mockito.when(mClient.getObjectMetadata(BUCKET_NAME, PATH)).thenReturn(meta);
+
+    Assert.assertTrue(ufs.isFile(PATH));
+    Assert.assertTrue(ufs.isFile(PATH));
+    Mockito.verify(mClient).getObjectMetadata(BUCKET_NAME, PATH);
+
+    Assert.assertTrue(ufs.deleteFile(PATH));
+    Mockito.when(mClient.getObjectMetadata(BUCKET_NAME, PATH)).thenReturn(null);
+    Assert.assertFalse(ufs.isFile(PATH));
+    Mockito.verify(mClient, Mockito.times(2)).getObjectMetadata(BUCKET_NAME, PATH);
+  }
+
+  /**
+   * Tests that the kind of a path is resolved with one listing, and that the children of a
+   * listed directory are resolved without a request.
+   */
+  @Test
+  public void statusResolver() throws IOException {
+    OBSUnderFileSystem ufs = createUfs(ImmutableMap.of(
+        OBSPropertyKey.Name.UNDERFS_OBS_STATUS_RESOLVER_ENABLED, "true"));
+    ObjectListing listing = Mockito.mock(ObjectListing.class);
+    Mockito.when(listing.getCommonPrefixes()).thenReturn(Collections.singletonList(PATH + "/"));
+    ObjectListing children = Mockito.mock(ObjectListing.class);
+    Mockito.when(children.getCommonPrefixes())
+        .thenReturn(Arrays.asList(PATH + "/a/", PATH + "/b/"));
+    Mockito.when(mClient.listObjects(Matchers.any(ListObjectsRequest.class))).thenAnswer(
+        invocation -> ((ListObjectsRequest) invocation.getArguments()[0]).getPrefix()
+            .equals(PATH) ? listing : children);
+
+    Assert.assertTrue(ufs.isDirectory(PATH));
+    Assert.assertFalse(ufs.isFile(PATH));
+    Assert.assertTrue(ufs.exists(PATH));
+    Mockito.verify(mClient).listObjects(Matchers.any(ListObjectsRequest.class));
+    Mockito.verify(mClient, Mockito.never()).getObjectMetadata(BUCKET_NAME, PATH);
+
+    Assert.assertEquals(2, ufs.listStatus(PATH).length);
+    Assert.assertTrue(ufs.isDirectory(PATH + "/a"));
+    Assert.assertFalse(ufs.isFile(PATH + "/b"));
+    Mockito.verify(mClient, Mockito.times(2)).listObjects(Matchers.any(ListObjectsRequest.class));
+  }
+
+  /**
+   * Tests that a file of a parallel file system bucket is renamed natively.
+   */
+  @Test
+  public void renameFileNatively() throws IOException {
+    GetBucketFSStatusResult fsStatus = Mockito.mock(GetBucketFSStatusResult.class);
+    Mockito.when(fsStatus.getStatus()).thenReturn(FSStatusEnum.ENABLED);
+    Mockito.when(mClient.getBucketFSStatus(Matchers.any(GetBucketFSStatusRequest.class)))
+        .thenReturn(fsStatus);
+    OBSUnderFileSystem ufs = createUfs(Collections.emptyMap());
+    ObjectMetadata meta = new ObjectMetadata();
+    meta.setContentLength(1L);
+    meta.setLastModified(new Date());
+    Mockito.when(mClient.getObjectMetadata(BUCKET_NAME, SRC)).thenReturn(meta);
+
+    Assert.assertTrue(ufs.renameFile(SRC, DST));
+    Mockito.verify(mClient).renameFile(Matchers.any(RenameRequest.class));
+    Mockito.verify(mClient, Mockito.never()).copyObject(Matchers.anyString(),
+        Matchers.anyString(), Matchers.anyString(), Matchers.anyString());
+  }
+
+  /**
+   * Tests that a file of an object bucket is renamed by copying it.
+   */
+  @Test
+  public void renameFileByCopy() throws IOException {
+    ObjectMetadata meta = new ObjectMetadata();
+    meta.setContentLength(1L);
+    meta.setLastModified(new Date());
+    Mockito.when(mClient.getObjectMetadata(BUCKET_NAME, SRC)).thenReturn(meta);
+
+    Assert.assertTrue(mOBSUnderFileSystem.renameFile(SRC, DST));
+    Mockito.verify(mClient).copyObject(BUCKET_NAME, SRC, BUCKET_NAME, DST);
+    Mockito.verify(mClient, Mockito.never()).renameFile(Matchers.any(RenameRequest.class));
+  }
+
+  /**
+   * Tests that a directory of an object bucket is renamed by copying its objects concurrently,
+   * and that the destination marker is created once all objects are copied.
+   */
+  @Test
+  public void renameDirectoryByConcurrentCopy() throws IOException {
+    mockDirectory(1L, 1L);
+
+    mOBSUnderFileSystem.renameDirectory(SRC, DST);
+    InOrder inOrder = Mockito.inOrder(mClient);
+    inOrder.verify(mClient, Mockito.times(2)).copyObject(Matchers.eq(BUCKET_NAME),
+        Matchers.startsWith(SRC + "/"), Matchers.eq(BUCKET_NAME), Matchers.startsWith(DST + "/"));
+    inOrder.verify(mClient).putObject(Matchers.eq(BUCKET_NAME), Matchers.eq(DST + "/"),
+        Matchers.any(InputStream.class), Matchers.any(ObjectMetadata.class));
+  }
+
+  /**
+   * Tests that a failed copy of a directory rename deletes the copied objects, and leaves the
+   * destination marker and the source alone.
+   */
+  @Test
+  public void renameDirectoryWithFailedCopy() throws IOException {
+    mockDirectory(1L, 1L);
+    Mockito.when(mClient.copyObject(BUCKET_NAME, SRC + "/b", BUCKET_NAME, DST + "/b"))
+        .thenThrow(error(403));
+    ArgumentCaptor<DeleteObjectsRequest> deletes =
+        ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+
+    Assert.assertFalse(mOBSUnderFileSystem.renameDirectory(SRC, DST));
+    Mockito.verify(mClient, Mockito.never()).putObject(Matchers.eq(BUCKET_NAME),
+        Matchers.eq(DST + "/"), Matchers.any(InputStream.class),
+        Matchers.any(ObjectMetadata.class));
+    Mockito.verify(mClient).deleteObjects(deletes.capture());
+    List<String> deletedKeys = new ArrayList<>();
+    for (KeyAndVersion key : deletes.getValue().getKeyAndVersions()) {
+      deletedKeys.add(key.getKey());
+    }
+    Assert.assertEquals(Arrays.asList(DST + "/a", DST + "/b"), deletedKeys);
+  }
+
+  /**
+   * Tests that an object larger than the copy partition size is copied with a multipart copy.
+   */
+  @Test
+  public void renameDirectoryWithMultipartCopy() throws IOException {
+    OBSUnderFileSystem ufs = createUfs(ImmutableMap.of(
+        OBSPropertyKey.Name.UNDERFS_OBS_MULTIPART_COPY_PARTITION_SIZE, "1KB"));
+    mockDirectory(2500L);
+    mockMultipartCopy();
+
+    ufs.renameDirectory(SRC, DST);
+    verifyMultipartCopy();
+  }
+
+  /**
+   * Tests that a file larger than the copy partition size is renamed with a multipart copy.
+   */
+  @Test
+  public void renameFileWithMultipartCopy() throws IOException {
+    OBSUnderFileSystem ufs = createUfs(ImmutableMap.of(
+        OBSPropertyKey.Name.UNDERFS_OBS_MULTIPART_COPY_PARTITION_SIZE, "1KB"));
+    ObjectMetadata meta = new ObjectMetadata();
+    meta.setContentLength(2500L);
+    meta.setLastModified(new Date());
+    Mockito.when(mClient.getObjectMetadata(BUCKET_NAME, SRC)).thenReturn(meta);
+    mockMultipartCopy();
+
+    Assert.assertTrue(ufs.renameFile(SRC, DST));
+    verifyMultipartCopy();
+  }
+
+  /**
+   * Mocks the requests of a multipart copy.
+   */
+  private void mockMultipartCopy() {
+    InitiateMultipartUploadResult initResult = Mockito.mock(InitiateMultipartUploadResult.class);
+    Mockito.when(initResult.getUploadId()).thenReturn("uploadId");
+    Mockito.when(mClient.initiateMultipartUpload(
+        Matchers.any(InitiateMultipartUploadRequest.class))).thenReturn(initResult);
+    Mockito.when(mClient.copyPart(Matchers.any(CopyPartRequest.class))).thenAnswer(
+        invocation -> {
+          CopyPartRequest request = (CopyPartRequest) invocation.getArguments()[0];
+          CopyPartResult result = Mockito.mock(CopyPartResult.class);
+          Mockito.when(result.getEtag()).thenReturn("etag" + request.getPartNumber());
+          Mockito.when(result.getPartNumber()).thenReturn(request.getPartNumber());
+          return result;
+        });
+  }
+
+  /**
+   * Verifies that an object of 2500 bytes was copied with a multipart copy of 1KB parts.
+   */
+  private void verifyMultipartCopy() {
+    ArgumentCaptor<CopyPartRequest> parts = ArgumentCaptor.forClass(CopyPartRequest.class);
+    Mockito.verify(mClient, Mockito.times(3)).copyPart(parts.capture());
+    List<Long> rangeEnds = new ArrayList<>();
+    for (CopyPartRequest part : parts.getAllValues()) {
+      rangeEnds.add(part.getByteRangeEnd());
+    }
+    Collections.sort(rangeEnds);
+    Assert.assertEquals(Arrays.asList(1023L, 2047L, 2499L), rangeEnds);
+    Mockito.verify(mClient).completeMultipartUpload(
+        Matchers.any(CompleteMultipartUploadRequest.class));
+    Mockito.verify(mClient, Mockito.never()).copyObject(Matchers.anyString(),
+        Matchers.anyString(), Matchers.anyString(), Matchers.anyString());
+  }
+
+  /**
+   * Mocks a source directory holding files of the given sizes, named from "a", and an empty
+   * listing for every other prefix.
+   *
+   * @param lengths the sizes of the files
+   */
+  private void mockDirectory(long... lengths) {
+    List<S3Object> objects = new ArrayList<>();
+    for (int i = 0; i < lengths.length; i++) {
+      ObjectMetadata meta = new ObjectMetadata();
+      meta.setContentLength(lengths[i]);
+      meta.setLastModified(new Date());
+      S3Object object = new S3Object();
+      object.setObjectKey(SRC + "/" + (char) ('a' + i));
+      object.setMetadata(meta);
+      objects.add(object);
+    }
+    ObjectListing children = Mockito.mock(ObjectListing.class);
+    Mockito.when(children.getObjectSummaries()).thenReturn(objects);
+    ObjectListing empty = Mockito.mock(ObjectListing.class);
+    Mockito.when(mClient.listObjects(Matchers.any(ListObjectsRequest.class))).thenAnswer(
+        invocation -> ((ListObjectsRequest) invocation.getArguments()[0]).getPrefix()
+            .equals(SRC + "/") ? children : empty);
+    Mockito.when(mClient.deleteObjects(Matchers.any(DeleteObjectsRequest.class)))
+        .thenReturn(Mockito.mock(DeleteObjectsResult.class));
+  }
+
+  private static ObsException error(int responseCode) {
+    ObsException e = Mockito.mock(ObsException.class);
+    Mockito.when(e.getResponseCode()).thenReturn(responseCode);
+    return e;
+  }
 }
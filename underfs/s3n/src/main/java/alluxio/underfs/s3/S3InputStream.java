@@ -11,11 +11,15 @@
 
 package alluxio.underfs.s3;
 
+import alluxio.Constants;
+
+import com.google.common.base.Preconditions;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.ServiceException;
 import org.jets3t.service.model.S3Object;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -25,9 +29,23 @@ import javax.annotation.concurrent.NotThreadSafe;
  * A stream for reading a file from S3. The main purpose is to provide a faster skip method, as
  * the underlying implementation will read and discard bytes until the number to skip has been
  * reached. This input stream returns 0 when calling read with an empty buffer.
+ *
+ * The stream classifies its own access pattern. It starts out sequential and reads the object
+ * with a single open-ended GET. Once a skip cannot be served from data already requested, the
+ * stream switches to random access and issues bounded range GETs, starting at the minimum range
+ * size. Every range that is read to its end doubles the size of the next range, and once the
+ * maximum range size is reached the stream goes back to open-ended GETs.
  */
 @NotThreadSafe
 public class S3InputStream extends InputStream {
+  /** Default size of the first range requested after random access is detected. */
+  static final long DEFAULT_MIN_RANGE_SIZE = Constants.MB;
+
+  /** Default size at which the stream goes back to open-ended requests. */
+  static final long DEFAULT_MAX_RANGE_SIZE = 64 * Constants.MB;
+
+  /** HTTP status returned by S3 when the requested range starts after the end of the object. */
+  private static final int SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
 
   /** Bucket name of the Alluxio S3 bucket. */
   private final String mBucketName;
@@ -38,6 +56,12 @@ public class S3InputStream extends InputStream {
   /** The JetS3t client for S3 operations. */
   private final S3Service mClient;
 
+  /** The size of the first range requested after a random access. */
+  private final long mMinRangeSize;
+
+  /** The range size at which the stream switches back to open-ended requests. */
+  private final long mMaxRangeSize;
+
   /** The storage object that will be updated on each large skip. */
   private S3Object mObject;
 
@@ -47,6 +71,12 @@ public class S3InputStream extends InputStream {
   /** Position of the stream. */
   private long mPos;
 
+  /** Size of the next range to request, or 0 if the next request is open-ended. */
+  private long mRangeSize;
+
+  /** Exclusive end of the range backing the underlying stream, Long.MAX_VALUE if open-ended. */
+  private long mRangeEnd;
+
   /**
    * Creates a new instance of {@link S3InputStream}.
    *
@@ -69,17 +99,40 @@ public class S3InputStream extends InputStream {
    * @throws ServiceException if a service exception occurs
    */
   S3InputStream(String bucketName, String key, S3Service client, long pos) throws ServiceException {
+    this(bucketName, key, client, pos, DEFAULT_MIN_RANGE_SIZE, DEFAULT_MAX_RANGE_SIZE);
+  }
+
+  /**
+   * Creates a new instance of {@link S3InputStream}, at a specific position.
+   *
+   * @param bucketName the name of the bucket
+   * @param key the key of the file
+   * @param client the client for S3
+   * @param pos the position to start
+   * @param minRangeSize the size of the first range requested after a random access
+   * @param maxRangeSize the range size at which the stream goes back to open-ended requests
+   * @throws ServiceException if a service exception occurs
+   */
+  S3InputStream(String bucketName, String key, S3Service client, long pos, long minRangeSize,
+      long maxRangeSize) throws ServiceException {
+    Preconditions.checkArgument(minRangeSize > 0, "minRangeSize must be positive");
+    Preconditions.checkArgument(maxRangeSize >= minRangeSize,
+        "maxRangeSize must not be smaller than minRangeSize");
     mBucketName = bucketName;
     mKey = key;
     mClient = client;
     mPos = pos;
+    mMinRangeSize = minRangeSize;
+    mMaxRangeSize = maxRangeSize;
+    mRangeSize = 0;
     // For an empty file setting start pos = 0 will throw a ServiceException
     if (mPos > 0) {
-      mObject = mClient.getObject(mBucketName, mKey, null, null, null, null, mPos, null);
+      openStream();
     } else {
       mObject = mClient.getObject(mBucketName, mKey);
+      mRangeEnd = Long.MAX_VALUE;
+      mInputStream = new BufferedInputStream(mObject.getDataInputStream());
     }
-    mInputStream = new BufferedInputStream(mObject.getDataInputStream());
   }
 
   @Override
@@ -90,6 +143,9 @@ public class S3InputStream extends InputStream {
   @Override
   public int read() throws IOException {
     int ret = mInputStream.read();
+    if (ret == -1 && continueSequentially()) {
+      ret = mInputStream.read();
+    }
     if (ret != -1) {
       mPos++;
     }
@@ -99,6 +155,9 @@ public class S3InputStream extends InputStream {
   @Override
   public int read(byte[] b, int off, int len) throws IOException {
     int ret = mInputStream.read(b, off, len);
+    if (ret == -1 && continueSequentially()) {
+      ret = mInputStream.read(b, off, len);
+    }
     if (ret != -1) {
       mPos += ret;
     }
@@ -106,27 +165,100 @@ public class S3InputStream extends InputStream {
   }
 
   /**
-   * This method leverages the ability to open a stream from S3 from a given offset. When the
-   * underlying stream has fewer bytes buffered than the skip request, the stream is closed, and
-   * a new stream is opened starting at the requested offset.
+   * This method leverages the ability to open a stream from S3 from a given offset. Skips that
+   * land inside the range that has already been requested are served by reading through the
+   * underlying stream. Otherwise the stream is closed, the access is recorded as random, and a
+   * new range is opened starting at the requested offset.
    *
    * @param n number of bytes to skip
    * @return the number of bytes skipped
    */
   @Override
   public long skip(long n) throws IOException {
-    if (mInputStream.available() >= n) {
-      return mInputStream.skip(n);
+    if (n <= 0) {
+      return 0;
+    }
+    long skipped = 0;
+    if (mInputStream.available() >= n
+        || (mRangeEnd != Long.MAX_VALUE && mPos + n < mRangeEnd)) {
+      skipped = skipBuffered(n);
+      if (skipped == n) {
+        return n;
+      }
     }
     // The number of bytes to skip is possibly large, open a new stream from S3.
     mInputStream.close();
-    mPos += n;
+    mPos += n - skipped;
+    mRangeSize = mMinRangeSize;
     try {
-      mObject = mClient.getObject(mBucketName, mKey, null, null, null, null, mPos, null);
-      mInputStream = new BufferedInputStream(mObject.getDataInputStream());
+      openStream();
     } catch (ServiceException e) {
       throw new IOException(e);
     }
     return n;
   }
+
+  /**
+   * Skips bytes by reading through the underlying stream, without issuing a new request.
+   *
+   * @param n number of bytes to skip
+   * @return the number of bytes skipped, smaller than n if the underlying stream ended
+   */
+  private long skipBuffered(long n) throws IOException {
+    long skipped = 0;
+    while (skipped < n) {
+      long ret = mInputStream.skip(n - skipped);
+      if (ret <= 0) {
+        if (mInputStream.read() == -1) {
+          break;
+        }
+        ret = 1;
+      }
+      skipped += ret;
+      mPos += ret;
+    }
+    return skipped;
+  }
+
+  /**
+   * Opens the next range when the current one has been read to its end. A range that is read
+   * fully is a sequential streak, so the next range is twice as large.
+   *
+   * @return true if a new range was opened, false if the end of the object has been reached
+   */
+  private boolean continueSequentially() throws IOException {
+    if (mRangeEnd == Long.MAX_VALUE || mPos < mRangeEnd) {
+      // Either the open-ended request or a range shorter than requested hit the end of object
+      return false;
+    }
+    mInputStream.close();
+    mRangeSize = mRangeSize * 2 >= mMaxRangeSize ? 0 : mRangeSize * 2;
+    try {
+      openStream();
+    } catch (ServiceException e) {
+      throw new IOException(e);
+    }
+    return true;
+  }
+
+  /**
+   * Opens a request at the current position, bounded by the current range size.
+   */
+  private void openStream() throws ServiceException {
+    Long rangeEnd = mRangeSize == 0 ? null : mPos + mRangeSize - 1;
+    try {
+      mObject = mClient.getObject(mBucketName, mKey, null, null, null, null, mPos, rangeEnd);
+    } catch (ServiceException e) {
+      if (e.getResponseCode() != SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+        throw e;
+      }
+      // The position is at or past the end of the object, there is nothing more to read
+      mObject = null;
+      mRangeEnd = Long.MAX_VALUE;
+      mInputStream = new BufferedInputStream(new ByteArrayInputStream(new byte[0]));
+      return;
+    }
+    mRangeEnd = rangeEnd == null ? Long.MAX_VALUE : rangeEnd + 1;
+    mInputStream = new BufferedInputStream(mObject.getDataInputStream());
+  }
 }
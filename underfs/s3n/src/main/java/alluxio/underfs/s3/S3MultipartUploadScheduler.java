@@ -0,0 +1,454 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.s3;
+
+import alluxio.Constants;
+import alluxio.retry.ExponentialBackoffRetry;
+import alluxio.retry.RetryPolicy;
+import alluxio.util.ThreadFactoryUtils;
+
+import com.google.common.base.Preconditions;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.ServiceException;
+import org.jets3t.service.model.MultipartPart;
+import org.jets3t.service.model.MultipartUpload;
+import org.jets3t.service.model.S3Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Uploads the parts of multipart uploads for all {@link S3OutputStream}s of the mounts sharing
+ * it through the {@link S3MultipartUploadSchedulerRegistry}, under a budget of concurrent
+ * connections and of bytes staged for upload. A writer submitting a part while the parts queued
+ * or being uploaded use up the byte budget waits for them to finish, so fast writers cannot stage
+ * an unbounded amount of data on local disk.
+ *
+ * Parts are taken from the open uploads in round-robin order, so a single large file cannot
+ * starve the others. Uploads whose stream is closing are served first, since a writer is blocked
+ * on them. A part that fails is retried with exponential backoff before its upload is aborted.
+ */
+@ThreadSafe
+final class S3MultipartUploadScheduler {
+  private static final Logger LOG = LoggerFactory.getLogger(S3MultipartUploadScheduler.class);
+
+  /** The base sleep between the attempts to upload a part. */
+  private static final int PART_RETRY_BASE_SLEEP_MS = 100;
+
+  /** The maximum sleep between the attempts to upload a part. */
+  private static final int PART_RETRY_MAX_SLEEP_MS = 10 * Constants.SECOND_MS;
+
+  /** The maximum number of parts being uploaded at the same time. */
+  private final int mMaxConnections;
+
+  /** The maximum number of bytes of parts queued or being uploaded. */
+  private final long mMaxBytesInFlight;
+
+  /** The number of times a failed part is retried before its upload is aborted. */
+  private final int mMaxPartRetries;
+
+  /** The threads uploading parts, one per connection of the budget. */
+  private final ExecutorService mExecutor;
+
+  private final Object mLock = new Object();
+
+  /** Uploads that have been started and not finished or aborted, in round-robin order. */
+  @GuardedBy("mLock")
+  private final LinkedList<Upload> mUploads = new LinkedList<>();
+
+  /** The number of bytes of parts queued or being uploaded. */
+  @GuardedBy("mLock")
+  private long mBytesInFlight;
+
+  /** Moving average of the upload throughput of a connection, in bytes per second. */
+  private volatile long mThroughput;
+
+  /**
+   * Creates a new instance of {@link S3MultipartUploadScheduler}.
+   *
+   * @param maxConnections the maximum number of parts uploaded at the same time
+   * @param maxBytesInFlight the maximum number of bytes of parts queued or being uploaded
+   * @param maxPartRetries the number of times a failed part is retried
+   */
+  S3MultipartUploadScheduler(int maxConnections, long maxBytesInFlight, int maxPartRetries) {
+    Preconditions.checkArgument(maxConnections > 0, "maxConnections must be positive");
+    Preconditions.checkArgument(maxBytesInFlight > 0, "maxBytesInFlight must be positive");
+    Preconditions.checkArgument(maxPartRetries >= 0, "maxPartRetries must not be negative");
+    mMaxConnections = maxConnections;
+    mMaxBytesInFlight = maxBytesInFlight;
+    mMaxPartRetries = maxPartRetries;
+    mExecutor = Executors.newFixedThreadPool(maxConnections,
+        ThreadFactoryUtils.build("s3n-multipart-upload-%d", true));
+    for (int i = 0; i < maxConnections; i++) {
+      mExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          uploadParts();
+        }
+      });
+    }
+  }
+
+  /**
+   * Stops the threads uploading parts. Uploads that are not complete fail.
+   */
+  void close() {
+    mExecutor.shutdownNow();
+  }
+
+  /**
+   * @return the maximum number of parts uploaded at the same time
+   */
+  int getMaxConnections() {
+    return mMaxConnections;
+  }
+
+  /**
+   * @return the recent upload throughput of a connection in bytes per second, or 0 if no part has
+   *         been uploaded yet
+   */
+  long getThroughput() {
+    return mThroughput;
+  }
+
+  /**
+   * Starts a multipart upload.
+   *
+   * @param client the JetS3t client
+   * @param bucketName the name of the bucket
+   * @param key the key of the object
+   * @return the upload to submit parts to
+   * @throws ServiceException if the upload could not be started
+   */
+  Upload start(S3Service client, String bucketName, String key) throws ServiceException {
+    MultipartUpload multipartUpload = client.multipartStartUpload(bucketName, new S3Object(key));
+    Upload upload = new Upload(client, multipartUpload);
+    synchronized (mLock) {
+      mUploads.add(upload);
+    }
+    return upload;
+  }
+
+  /**
+   * Queues a part of an upload, waiting while the parts queued or being uploaded use up the byte
+   * budget. A part larger than the budget waits for all other parts. The file is deleted once the
+   * part has been uploaded, or if it cannot be queued.
+   *
+   * @param upload the upload the part belongs to
+   * @param partNumber the number of the part, starting from 1
+   * @param file the file containing the data of the part
+   * @param md5 the MD5 hash of the part, or null if it was not computed
+   * @throws IOException if an earlier part of the upload failed, or the wait was interrupted
+   */
+  void submit(Upload upload, int partNumber, File file, byte[] md5) throws IOException {
+    Part part = new Part(upload, partNumber, file, md5);
+    synchronized (mLock) {
+      try {
+        while (upload.mError == null && mBytesInFlight > 0
+            && mBytesInFlight + part.mLength > mMaxBytesInFlight) {
+          mLock.wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        part.deleteFile();
+        throw new IOException(e);
+      }
+      if (upload.mError != null) {
+        part.deleteFile();
+        throw new IOException("Failed to upload the parts of " + upload, upload.mError);
+      }
+      upload.mPending.add(part);
+      mBytesInFlight += part.mLength;
+      mLock.notifyAll();
+    }
+  }
+
+  /**
+   * Waits for all parts of an upload to be uploaded and completes the upload. While waiting, the
+   * parts of this upload are prioritized over the parts of uploads that are still being written.
+   *
+   * @param upload the upload to complete
+   * @throws IOException if a part could not be uploaded or the upload could not be completed
+   */
+  void complete(Upload upload) throws IOException {
+    List<MultipartPart> parts;
+    Throwable error;
+    synchronized (mLock) {
+      upload.mClosing = true;
+      mLock.notifyAll();
+      try {
+        while (upload.mError == null && (!upload.mPending.isEmpty() || upload.mInFlight > 0)) {
+          mLock.wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        upload.mError = e;
+      }
+      error = upload.mError;
+      mUploads.remove(upload);
+      parts = new ArrayList<>(upload.mParts);
+    }
+    if (error != null) {
+      abort(upload);
+      throw new IOException("Failed to upload the parts of " + upload, error);
+    }
+    Collections.sort(parts, new Comparator<MultipartPart>() {
+      @Override
+      public int compare(MultipartPart a, MultipartPart b) {
+        return a.getPartNumber().compareTo(b.getPartNumber());
+      }
+    });
+    try {
+      upload.mClient.multipartCompleteUpload(upload.mMultipartUpload, parts);
+    } catch (ServiceException e) {
+      abort(upload);
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Aborts an upload, dropping the parts that have not been uploaded yet.
+   *
+   * @param upload the upload to abort
+   */
+  void abort(Upload upload) {
+    synchronized (mLock) {
+      if (upload.mError == null) {
+        // Stops the retries of the parts being uploaded
+        upload.mError = new IOException("The upload was aborted");
+      }
+      mUploads.remove(upload);
+      dropPending(upload);
+    }
+    try {
+      upload.mClient.multipartAbortUpload(upload.mMultipartUpload);
+    } catch (ServiceException e) {
+      LOG.error("Failed to abort {}", upload, e);
+    }
+  }
+
+  /**
+   * Deletes the parts of an upload which are still queued, and releases their bytes.
+   *
+   * @param upload the upload
+   */
+  @GuardedBy("mLock")
+  private void dropPending(Upload upload) {
+    for (Part part : upload.mPending) {
+      part.deleteFile();
+      mBytesInFlight -= part.mLength;
+    }
+    upload.mPending.clear();
+    mLock.notifyAll();
+  }
+
+  /**
+   * Takes parts from the queue and uploads them until the scheduler threads are interrupted.
+   */
+  private void uploadParts() {
+    while (!Thread.currentThread().isInterrupted()) {
+      Part part;
+      try {
+        part = take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      Throwable error = null;
+      MultipartPart result = null;
+      try {
+        result = uploadPart(part);
+      } catch (Throwable t) {
+        LOG.error("Failed to upload part {} of {}", part.mNumber, part.mUpload, t);
+        error = t;
+      } finally {
+        part.deleteFile();
+      }
+      synchronized (mLock) {
+        mBytesInFlight -= part.mLength;
+        part.mUpload.mInFlight--;
+        if (error != null) {
+          part.mUpload.mError = error;
+          // The upload is aborted, its other parts do not need to hold on to the budget
+          dropPending(part.mUpload);
+        } else {
+          part.mUpload.mParts.add(result);
+        }
+        mLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Uploads a part, retrying it with exponential backoff if it fails.
+   *
+   * @param part the part
+   * @return the uploaded part
+   */
+  private MultipartPart uploadPart(Part part) throws Exception {
+    RetryPolicy retryPolicy = new ExponentialBackoffRetry(PART_RETRY_BASE_SLEEP_MS,
+        PART_RETRY_MAX_SLEEP_MS, mMaxPartRetries);
+    Exception error = null;
+    while (retryPolicy.attempt()) {
+      if (part.mUpload.mError != null) {
+        // Another part of the upload failed, the upload is aborted
+        break;
+      }
+      long startMs = System.currentTimeMillis();
+      try {
+        S3Object object = new S3Object(part.mUpload.mMultipartUpload.getObjectKey());
+        object.setDataInputFile(part.mFile);
+        object.setContentLength(part.mLength);
+        if (part.mMd5 != null) {
+          object.setMd5Hash(part.mMd5);
+        }
+        MultipartPart result = part.mUpload.mClient.multipartUploadPart(
+            part.mUpload.mMultipartUpload, part.mNumber, object);
+        recordThroughput(part.mLength, System.currentTimeMillis() - startMs);
+        return result;
+      } catch (Exception e) {
+        LOG.warn("Attempt {} to upload part {} of {} failed: {}", retryPolicy.getAttemptCount(),
+            part.mNumber, part.mUpload, e.toString());
+        error = e;
+      }
+    }
+    throw error != null ? error
+        : new IOException("Upload aborted before part " + part.mNumber + " was uploaded");
+  }
+
+  /**
+   * Folds the throughput of an uploaded part into the moving average.
+   *
+   * @param bytes the size of the part
+   * @param durationMs the time it took to upload the part
+   */
+  private void recordThroughput(long bytes, long durationMs) {
+    long throughput = bytes * Constants.SECOND_MS / Math.max(durationMs, 1);
+    synchronized (mLock) {
+      mThroughput = mThroughput == 0 ? throughput : (3 * mThroughput + throughput) / 4;
+    }
+  }
+
+  /**
+   * Waits for a queued part, and marks it in flight.
+   *
+   * @return the next part to upload
+   */
+  private Part take() throws InterruptedException {
+    synchronized (mLock) {
+      while (true) {
+        Upload upload = nextUpload();
+        if (upload != null) {
+          // The bytes of the part are accounted for when it is submitted
+          Part part = upload.mPending.remove();
+          upload.mInFlight++;
+          // Move the upload to the back of the queue so the others get their turn
+          mUploads.remove(upload);
+          mUploads.add(upload);
+          return part;
+        }
+        mLock.wait();
+      }
+    }
+  }
+
+  /**
+   * @return the first upload in round-robin order with pending parts, preferring uploads whose
+   *         stream is closing, or null if no upload has pending parts
+   */
+  @GuardedBy("mLock")
+  private Upload nextUpload() {
+    Upload next = null;
+    Iterator<Upload> iterator = mUploads.iterator();
+    while (iterator.hasNext()) {
+      Upload upload = iterator.next();
+      if (upload.mPending.isEmpty() || upload.mError != null) {
+        continue;
+      }
+      if (upload.mClosing) {
+        return upload;
+      }
+      if (next == null) {
+        next = upload;
+      }
+    }
+    return next;
+  }
+
+  /**
+   * A multipart upload of an object, with its parts queued or in flight.
+   */
+  static final class Upload {
+    private final S3Service mClient;
+    private final MultipartUpload mMultipartUpload;
+    /** Parts waiting to be uploaded, in submission order. */
+    private final Queue<Part> mPending = new ArrayDeque<>();
+    /** Parts that have been uploaded. */
+    private final List<MultipartPart> mParts = new ArrayList<>();
+    /** Number of parts being uploaded. */
+    private int mInFlight;
+    /** Whether the stream writing this upload is closing. */
+    private boolean mClosing;
+    /** The first error encountered while uploading a part, also read by the part uploads. */
+    private volatile Throwable mError;
+
+    private Upload(S3Service client, MultipartUpload multipartUpload) {
+      mClient = client;
+      mMultipartUpload = multipartUpload;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("multipart upload %s of %s/%s", mMultipartUpload.getUploadId(),
+          mMultipartUpload.getBucketName(), mMultipartUpload.getObjectKey());
+    }
+  }
+
+  /**
+   * A part of a multipart upload, staged in a local file.
+   */
+  private static final class Part {
+    private final Upload mUpload;
+    private final int mNumber;
+    private final File mFile;
+    private final long mLength;
+    private final byte[] mMd5;
+
+    private Part(Upload upload, int number, File file, byte[] md5) {
+      mUpload = upload;
+      mNumber = number;
+      mFile = file;
+      mLength = file.length();
+      mMd5 = md5;
+    }
+
+    private void deleteFile() {
+      if (!mFile.delete()) {
+        LOG.error("Failed to delete temporary file @ {}", mFile.getPath());
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Shares {@link S3MultipartUploadScheduler}s, and their connection and byte budgets, between the
+ * S3 mounts of a process.
+ *
+ * Mounts with the same upload settings get the same scheduler, so with the default settings the
+ * budgets bound all the multipart uploads of a worker rather than those of each mount. A
+ * scheduler is closed when the last user releases it.
+ */
+@ThreadSafe
+final class S3MultipartUploadSchedulerRegistry {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(S3MultipartUploadSchedulerRegistry.class);
+
+  /** The registry shared by all S3 mounts. */
+  private static final S3MultipartUploadSchedulerRegistry INSTANCE =
+      new S3MultipartUploadSchedulerRegistry();
+
+  /** The shared schedulers by upload settings. */
+  @GuardedBy("this")
+  private final Map<List<Long>, SharedScheduler> mSchedulers = new HashMap<>();
+
+  /** The shared schedulers by scheduler instance. */
+  @GuardedBy("this")
+  private final Map<S3MultipartUploadScheduler, SharedScheduler> mSharedSchedulers =
+      new IdentityHashMap<>();
+
+  /**
+   * @return the registry shared by all S3 mounts
+   */
+  static S3MultipartUploadSchedulerRegistry get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Gets a scheduler for the given settings, creating it if nobody uses one yet. Every call must
+   * be matched by a call to {@link #release(S3MultipartUploadScheduler)}.
+   *
+   * @param maxConnections the maximum number of parts uploaded at the same time
+   * @param maxBytesInFlight the maximum number of bytes of parts queued or being uploaded
+   * @param maxPartRetries the number of times a failed part is retried
+   * @return the shared scheduler
+   */
+  synchronized S3MultipartUploadScheduler acquire(int maxConnections, long maxBytesInFlight,
+      int maxPartRetries) {
+    List<Long> key = Arrays.asList((long) maxConnections, maxBytesInFlight,
+        (long) maxPartRetries);
+    SharedScheduler shared = mSchedulers.get(key);
+    if (shared == null) {
+      shared = new SharedScheduler(key,
+          new S3MultipartUploadScheduler(maxConnections, maxBytesInFlight, maxPartRetries));
+      mSchedulers.put(key, shared);
+      mSharedSchedulers.put(shared.mScheduler, shared);
+      LOG.debug("Created S3 multipart upload scheduler with settings {}", key);
+    }
+    shared.mRefCount++;
+    return shared.mScheduler;
+  }
+
+  /**
+   * Releases a scheduler, closing it if nobody else uses it. Schedulers that were not acquired
+   * from this registry are ignored.
+   *
+   * @param scheduler the scheduler to release
+   */
+  void release(S3MultipartUploadScheduler scheduler) {
+    synchronized (this) {
+      SharedScheduler shared = mSharedSchedulers.get(scheduler);
+      if (shared == null || --shared.mRefCount > 0) {
+        return;
+      }
+      mSharedSchedulers.remove(scheduler);
+      mSchedulers.remove(shared.mKey);
+    }
+    scheduler.close();
+  }
+
+  /**
+   * A scheduler and the number of its users.
+   */
+  private static final class SharedScheduler {
+    private final List<Long> mKey;
+    private final S3MultipartUploadScheduler mScheduler;
+    private int mRefCount;
+
+    private SharedScheduler(List<Long> key, S3MultipartUploadScheduler scheduler) {
+      mKey = key;
+      mScheduler = scheduler;
+    }
+  }
+}
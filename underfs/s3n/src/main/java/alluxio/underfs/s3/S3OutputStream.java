@@ -11,15 +11,15 @@
 
 package alluxio.underfs.s3;
 
-import alluxio.Constants;
+import alluxio.Configuration;
+import alluxio.PropertyKey;
+import alluxio.util.CommonUtils;
 import alluxio.util.io.PathUtils;
 
 import com.google.common.base.Preconditions;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.model.S3Object;
-import org.jets3t.service.model.StorageObject;
 import org.jets3t.service.utils.Mimetypes;
-import org.jets3t.service.utils.MultipartUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,7 +31,6 @@ import java.io.OutputStream;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -40,7 +39,10 @@ import javax.annotation.concurrent.NotThreadSafe;
 
 /**
  * A stream for writing a file into S3. The data will be persisted to a temporary directory on the
- * local disk and copied as a complete file when the {@link #close()} method is called.
+ * local disk. A file smaller than the first part is copied as a complete file when the
+ * {@link #close()} method is called. Larger files are uploaded with a multipart upload: each part
+ * is handed to the {@link S3MultipartUploadScheduler} as soon as it is written, and
+ * {@link #close()} waits for the remaining parts.
  */
 @NotThreadSafe
 public class S3OutputStream extends OutputStream {
@@ -52,30 +54,73 @@ public class S3OutputStream extends OutputStream {
   /** Key of the file when it is uploaded to S3. */
   private final String mKey;
 
-  /** The local file that will be uploaded when the stream is closed. */
-  private final File mFile;
-
   /** The JetS3t client for S3 operations. */
   private final S3Service mClient;
 
-  /** The output stream to a local file where the file will be buffered until closed. */
+  /** The scheduler uploading the parts of multipart uploads. */
+  private final S3MultipartUploadScheduler mScheduler;
+
+  /** Whether the scheduler was acquired by this stream from the registry, and is released. */
+  private final boolean mReleaseScheduler;
+
+  /** The local directories where the parts are staged. */
+  private final List<String> mTmpDirs;
+
+  /** The cache of recently uploaded content, or null if uploads are not deduplicated. */
+  private final S3UploadDedupCache mDedupCache;
+
+  /** The minimum size of a part, and the size above which a multipart upload is used. */
+  private final long mMinPartSize;
+
+  /** The size of the current part, chosen by {@link S3Utils#computePartSize}. */
+  private long mPartSize;
+
+  /** The number of bytes written to the previous parts. */
+  private long mBytesWritten;
+
+  /** The local file of the current part. */
+  private File mFile;
+
+  /** The output stream to the local file of the current part. */
   private OutputStream mLocalOutputStream;
 
-  /** The MD5 hash of the file. */
+  /** The MD5 hash of the current part. */
   private MessageDigest mHash;
 
+  /** The number of bytes written to the current part. */
+  private long mPartBytes;
+
+  /** The number of the current part, starting from 1. */
+  private int mPartNumber;
+
+  /** The multipart upload, or null if the file still fits in a single part. */
+  private S3MultipartUploadScheduler.Upload mUpload;
+
+  /** Whether the multipart upload failed and was aborted. */
+  private boolean mAborted;
+
   /** Flag to indicate this stream has been closed, to ensure close is only done once. */
   private AtomicBoolean mClosed = new AtomicBoolean(false);
 
   /**
-   * A {@link MultipartUtils} to upload the file to S3 using Multipart Uploads. Multipart Uploads
-   * involves uploading an object's data in parts instead of all at once, which can work around S3's
-   * limit of 5GB on a single Object PUT operation.
+   * Constructs a new stream for writing a file, with the shared scheduler configured from the
+   * site configuration.
    *
-   * It is recommended (http://docs.aws.amazon.com/AmazonS3/latest/dev/UploadingObjects.html)
-   * to upload file larger than 100MB using Multipart Uploads.
+   * @param bucketName the name of the bucket
+   * @param key the key of the file
+   * @param client the JetS3t client
+   * @deprecated streams of a mount should share the scheduler of the mount, use
+   *             {@link S3UnderFileSystem#create} instead
    */
-  private static final MultipartUtils MULTIPART_UTIL = new MultipartUtils(Constants.MB * 100);
+  @Deprecated
+  public S3OutputStream(String bucketName, String key, S3Service client) throws IOException {
+    this(bucketName, key, client, S3MultipartUploadSchedulerRegistry.get().acquire(
+        Configuration.getInt(PropertyKey.UNDERFS_S3_UPLOAD_THREADS_MAX),
+        Configuration.getBytes(S3PropertyKey.UNDERFS_S3_MULTIPART_UPLOAD_BYTES_MAX),
+        Configuration.getInt(S3PropertyKey.UNDERFS_S3_MULTIPART_UPLOAD_PART_RETRIES)), true,
+        Configuration.getBytes(S3PropertyKey.UNDERFS_S3_MULTIPART_UPLOAD_PART_SIZE_MIN), null,
+        Configuration.getList(PropertyKey.TMP_DIRS, ","));
+  }
 
   /**
    * Constructs a new stream for writing a file.
@@ -83,38 +128,63 @@ public class S3OutputStream extends OutputStream {
    * @param bucketName the name of the bucket
    * @param key the key of the file
    * @param client the JetS3t client
+   * @param scheduler the scheduler uploading the parts of multipart uploads
+   * @param minPartSize the minimum size of a part, and the size above which a multipart upload
+   *        is used
+   * @param dedupCache the cache of recently uploaded content, or null to always upload
+   * @param tmpDirs the local directories where the parts are staged
    */
-  public S3OutputStream(String bucketName, String key, S3Service client) throws IOException {
+  S3OutputStream(String bucketName, String key, S3Service client,
+      S3MultipartUploadScheduler scheduler, long minPartSize, S3UploadDedupCache dedupCache,
+      List<String> tmpDirs) throws IOException {
+    this(bucketName, key, client, scheduler, false, minPartSize, dedupCache, tmpDirs);
+  }
+
+  private S3OutputStream(String bucketName, String key, S3Service client,
+      S3MultipartUploadScheduler scheduler, boolean releaseScheduler, long minPartSize,
+      S3UploadDedupCache dedupCache, List<String> tmpDirs) throws IOException {
     Preconditions.checkArgument(bucketName != null && !bucketName.isEmpty(), "Bucket name must "
         + "not be null or empty.");
+    Preconditions.checkArgument(minPartSize > 0, "Part size must be positive.");
+    Preconditions.checkArgument(!tmpDirs.isEmpty(), "Temporary directories must not be empty.");
     mBucketName = bucketName;
     mKey = key;
     mClient = client;
-    mFile = new File(PathUtils.concatPath("/tmp", UUID.randomUUID()));
-    try {
-      mHash = MessageDigest.getInstance("MD5");
-      mLocalOutputStream =
-          new BufferedOutputStream(new DigestOutputStream(new FileOutputStream(mFile), mHash));
-    } catch (NoSuchAlgorithmException e) {
-      LOG.warn("Algorithm not available for MD5 hash.", e);
-      mHash = null;
-      mLocalOutputStream = new BufferedOutputStream(new FileOutputStream(mFile));
-    }
+    mScheduler = scheduler;
+    mReleaseScheduler = releaseScheduler;
+    mMinPartSize = minPartSize;
+    mDedupCache = dedupCache;
+    mTmpDirs = tmpDirs;
+    mPartNumber = 1;
+    openPart();
   }
 
   @Override
   public void write(int b) throws IOException {
+    if (mPartBytes >= mPartSize) {
+      nextPart();
+    }
     mLocalOutputStream.write(b);
+    mPartBytes++;
   }
 
   @Override
   public void write(byte[] b) throws IOException {
-    mLocalOutputStream.write(b, 0, b.length);
+    write(b, 0, b.length);
   }
 
   @Override
   public void write(byte[] b, int off, int len) throws IOException {
-    mLocalOutputStream.write(b, off, len);
+    while (len > 0) {
+      if (mPartBytes >= mPartSize) {
+        nextPart();
+      }
+      int toWrite = (int) Math.min(len, mPartSize - mPartBytes);
+      mLocalOutputStream.write(b, off, toWrite);
+      mPartBytes += toWrite;
+      off += toWrite;
+      len -= toWrite;
+    }
   }
 
   @Override
@@ -127,34 +197,153 @@ public class S3OutputStream extends OutputStream {
     if (mClosed.getAndSet(true)) {
       return;
     }
-    mLocalOutputStream.close();
     try {
+      if (mUpload == null) {
+        mLocalOutputStream.close();
+        // Avoid uploading file with Multipart if it's not necessary to save the extra overhead.
+        putObject();
+        return;
+      }
+      checkNotAborted();
+      try {
+        mLocalOutputStream.close();
+        if (mPartBytes > 0) {
+          mScheduler.submit(mUpload, mPartNumber, mFile, digest());
+        } else {
+          deleteFile();
+        }
+      } catch (IOException e) {
+        abort();
+        throw e;
+      }
+      // Aborts the upload if it cannot be completed
+      mScheduler.complete(mUpload);
+    } finally {
+      if (mReleaseScheduler) {
+        S3MultipartUploadSchedulerRegistry.get().release(mScheduler);
+      }
+    }
+  }
+
+  /**
+   * Uploads the current part, which holds the whole file, with a single PUT. The PUT is skipped if
+   * identical content was uploaded recently and can be reused.
+   */
+  private void putObject() throws IOException {
+    try {
+      long length = mFile.length();
+      byte[] hash = digest();
+      if (hash != null && mDedupCache != null
+          && mDedupCache.tryReuse(mClient, mBucketName, mKey, hash, length)) {
+        deleteFile();
+        return;
+      }
       S3Object obj = new S3Object(mKey);
       obj.setBucketName(mBucketName);
       obj.setDataInputFile(mFile);
-      obj.setContentLength(mFile.length());
+      obj.setContentLength(length);
       obj.setContentEncoding(Mimetypes.MIMETYPE_BINARY_OCTET_STREAM);
-      if (mHash != null) {
-        obj.setMd5Hash(mHash.digest());
+      if (hash != null) {
+        obj.setMd5Hash(hash);
       } else {
         LOG.warn("MD5 was not computed for: {}", mKey);
       }
-      if (MULTIPART_UTIL.isFileLargerThanMaxPartSize(mFile)) {
-        // Big object will be split into parts and uploaded to S3 in parallel.
-        List<StorageObject> objectsToUploadAsMultipart = new ArrayList<>();
-        objectsToUploadAsMultipart.add(obj);
-        MULTIPART_UTIL.uploadObjects(mBucketName, mClient, objectsToUploadAsMultipart, null);
-      } else {
-        // Avoid uploading file with Multipart if it's not necessary to save the
-        // extra overhead.
-        mClient.putObject(mBucketName, obj);
-      }
-      if (!mFile.delete()) {
-        LOG.error("Failed to delete temporary file @ {}", mFile.getPath());
+      mClient.putObject(mBucketName, obj);
+      if (hash != null && mDedupCache != null) {
+        mDedupCache.put(mBucketName, mKey, hash, length);
       }
+      deleteFile();
     } catch (Exception e) {
       LOG.error("Failed to upload {}. Temporary file @ {}", mKey, mFile.getPath());
       throw new IOException(e);
     }
   }
+
+  /**
+   * Hands the current part to the scheduler, starting the multipart upload if needed, and opens
+   * the next part.
+   */
+  private void nextPart() throws IOException {
+    checkNotAborted();
+    mLocalOutputStream.close();
+    if (mPartNumber >= S3Utils.MULTIPART_MAX_PARTS) {
+      // S3 would only reject the upload when completing it
+      abort();
+      throw new IOException(String.format("Failed to write %s: a multipart upload has at most %d "
+          + "parts", mKey, S3Utils.MULTIPART_MAX_PARTS));
+    }
+    if (mUpload == null) {
+      try {
+        mUpload = mScheduler.start(mClient, mBucketName, mKey);
+      } catch (Exception e) {
+        LOG.error("Failed to start multipart upload of {}. Temporary file @ {}", mKey,
+            mFile.getPath());
+        throw new IOException(e);
+      }
+    }
+    try {
+      mScheduler.submit(mUpload, mPartNumber, mFile, digest());
+    } catch (IOException e) {
+      abort();
+      throw e;
+    }
+    mBytesWritten += mPartBytes;
+    mPartNumber++;
+    openPart();
+  }
+
+  /**
+   * Opens a new local file for the current part, and sizes the part from the bytes written so far
+   * and the upload concurrency and throughput of the scheduler.
+   */
+  private void openPart() throws IOException {
+    mFile = new File(PathUtils.concatPath(CommonUtils.getTmpDir(mTmpDirs), UUID.randomUUID()));
+    mPartBytes = 0;
+    mPartSize = S3Utils.computePartSize(mBytesWritten, mPartNumber, mMinPartSize,
+        mScheduler.getMaxConnections(), mScheduler.getThroughput());
+    try {
+      mHash = MessageDigest.getInstance("MD5");
+      mLocalOutputStream =
+          new BufferedOutputStream(new DigestOutputStream(new FileOutputStream(mFile), mHash));
+    } catch (NoSuchAlgorithmException e) {
+      LOG.warn("Algorithm not available for MD5 hash.", e);
+      mHash = null;
+      mLocalOutputStream = new BufferedOutputStream(new FileOutputStream(mFile));
+    }
+  }
+
+  /**
+   * @throws IOException if the multipart upload was aborted after a failure
+   */
+  private void checkNotAborted() throws IOException {
+    if (mAborted) {
+      throw new IOException("The multipart upload of " + mKey + " was aborted after a failure");
+    }
+  }
+
+  /**
+   * Aborts the multipart upload after a failure, so S3 does not keep its uploaded parts, and
+   * deletes the local file of the current part if it was not handed to the scheduler.
+   */
+  private void abort() {
+    mAborted = true;
+    LOG.error("Aborting the multipart upload of {}", mKey);
+    mScheduler.abort(mUpload);
+    if (mFile.exists()) {
+      deleteFile();
+    }
+  }
+
+  /**
+   * @return the MD5 hash of the current part, or null if it was not computed
+   */
+  private byte[] digest() {
+    return mHash == null ? null : mHash.digest();
+  }
+
+  private void deleteFile() {
+    if (!mFile.delete()) {
+      LOG.error("Failed to delete temporary file @ {}", mFile.getPath());
+    }
+  }
 }
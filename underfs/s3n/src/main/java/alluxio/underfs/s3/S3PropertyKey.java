@@ -35,6 +35,76 @@ public final class S3PropertyKey {
           .setDescription("If using a proxy to communicate with S3, determine whether to talk "
               + "to the proxy using https.")
           .build();
+  public static final PropertyKey UNDERFS_S3_READ_RANGE_MIN_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_S3_READ_RANGE_MIN_SIZE)
+          .setDefaultValue("1MB")
+          .setDescription("The size of the first range requested by an S3 input stream after "
+              + "it detects random access. The range size doubles each time a range is read "
+              + "to its end.")
+          .build();
+  public static final PropertyKey UNDERFS_S3_READ_RANGE_MAX_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_S3_READ_RANGE_MAX_SIZE)
+          .setDefaultValue("64MB")
+          .setDescription("The range size at which an S3 input stream considers the access "
+              + "sequential again and reads the rest of the object with a single request.")
+          .build();
+  public static final PropertyKey UNDERFS_S3_LISTING_STATUS_CACHE_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_S3_LISTING_STATUS_CACHE_SIZE)
+          .setDefaultValue(100000)
+          .setDescription("The maximum number of object statuses of recent listings remembered "
+              + "by a mount, so looking up the status of a listed object does not need a "
+              + "metadata request.")
+          .build();
+  public static final PropertyKey UNDERFS_S3_LISTING_STATUS_CACHE_TTL_MS =
+      new PropertyKey.Builder(Name.UNDERFS_S3_LISTING_STATUS_CACHE_TTL_MS)
+          .setDefaultValue(10 * 1000)
+          .setDescription("The time in milliseconds after which the status of a listed object "
+              + "is looked up again. Changes made by other clients may be hidden for this long. "
+              + "Set to 0 to disable the cache.")
+          .build();
+  public static final PropertyKey UNDERFS_S3_MULTIPART_UPLOAD_BYTES_MAX =
+      new PropertyKey.Builder(Name.UNDERFS_S3_MULTIPART_UPLOAD_BYTES_MAX)
+          .setDefaultValue("2GB")
+          .setDescription("The maximum number of bytes of multipart upload parts staged for "
+              + "upload by all S3 output streams of the process. A stream finishing a part "
+              + "waits while the budget is used up. The number of parts uploaded at the same "
+              + "time is bounded by " + PropertyKey.Name.UNDERFS_S3_UPLOAD_THREADS_MAX + ". "
+              + "Mounts which set different upload settings get budgets of their own.")
+          .build();
+  public static final PropertyKey UNDERFS_S3_MULTIPART_UPLOAD_PART_RETRIES =
+      new PropertyKey.Builder(Name.UNDERFS_S3_MULTIPART_UPLOAD_PART_RETRIES)
+          .setDefaultValue(3)
+          .setDescription("The number of times a multipart upload part which failed to upload "
+              + "is retried, with exponential backoff, before the upload is aborted.")
+          .build();
+  public static final PropertyKey UNDERFS_S3_MULTIPART_UPLOAD_PART_SIZE_MIN =
+      new PropertyKey.Builder(Name.UNDERFS_S3_MULTIPART_UPLOAD_PART_SIZE_MIN)
+          .setDefaultValue("16MB")
+          .setDescription("The minimum size of a multipart upload part. Files smaller than this "
+              + "are uploaded with a single request. Larger parts are used for large files and "
+              + "for fast connections, and parts never become smaller than 5MB.")
+          .build();
+  public static final PropertyKey UNDERFS_S3_UPLOAD_DEDUP_ENABLED =
+      new PropertyKey.Builder(Name.UNDERFS_S3_UPLOAD_DEDUP_ENABLED)
+          .setDefaultValue(false)
+          .setDescription("Whether to skip uploading an object, or to copy it on the server "
+              + "side, when an object with identical content was recently uploaded to the same "
+              + "bucket through the same mount. Objects rewritten with identical content keep their "
+              + "previous modification time. Only applies to objects uploaded with a single "
+              + "request.")
+          .build();
+  public static final PropertyKey UNDERFS_S3_UPLOAD_DEDUP_CACHE_SIZE =
+      new PropertyKey.Builder(Name.UNDERFS_S3_UPLOAD_DEDUP_CACHE_SIZE)
+          .setDefaultValue(10000)
+          .setDescription("The maximum number of recently uploaded objects remembered by a "
+              + "mount for deduplicating uploads.")
+          .build();
+  public static final PropertyKey UNDERFS_S3_UPLOAD_DEDUP_TTL_MS =
+      new PropertyKey.Builder(Name.UNDERFS_S3_UPLOAD_DEDUP_TTL_MS)
+          .setDefaultValue(10 * 60 * 1000)
+          .setDescription("The time in milliseconds after which an uploaded object is no "
+              + "longer used for deduplicating uploads.")
+          .build();
 
   @ThreadSafe
   public static final class Name {
@@ -46,5 +116,25 @@ public final class S3PropertyKey {
     public static final String UNDERFS_S3_ENDPOINT_HTTP_PORT =
         "alluxio.underfs.s3.endpoint.http.port";
     public static final String UNDERFS_S3_PROXY_HTTPS_ONLY = "alluxio.underfs.s3.proxy.https.only";
+    public static final String UNDERFS_S3_LISTING_STATUS_CACHE_SIZE =
+        "alluxio.underfs.s3.listing.status.cache.size";
+    public static final String UNDERFS_S3_LISTING_STATUS_CACHE_TTL_MS =
+        "alluxio.underfs.s3.listing.status.cache.ttl.ms";
+    public static final String UNDERFS_S3_MULTIPART_UPLOAD_BYTES_MAX =
+        "alluxio.underfs.s3.multipart.upload.bytes.max";
+    public static final String UNDERFS_S3_MULTIPART_UPLOAD_PART_RETRIES =
+        "alluxio.underfs.s3.multipart.upload.part.retries";
+    public static final String UNDERFS_S3_MULTIPART_UPLOAD_PART_SIZE_MIN =
+        "alluxio.underfs.s3.multipart.upload.part.size.min";
+    public static final String UNDERFS_S3_UPLOAD_DEDUP_ENABLED =
+        "alluxio.underfs.s3.upload.dedup.enabled";
+    public static final String UNDERFS_S3_UPLOAD_DEDUP_CACHE_SIZE =
+        "alluxio.underfs.s3.upload.dedup.cache.size";
+    public static final String UNDERFS_S3_UPLOAD_DEDUP_TTL_MS =
+        "alluxio.underfs.s3.upload.dedup.ttl.ms";
+    public static final String UNDERFS_S3_READ_RANGE_MIN_SIZE =
+        "alluxio.underfs.s3.read.range.min.size";
+    public static final String UNDERFS_S3_READ_RANGE_MAX_SIZE =
+        "alluxio.underfs.s3.read.range.max.size";
   }
 }
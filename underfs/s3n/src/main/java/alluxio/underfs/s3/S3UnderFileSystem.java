@@ -18,10 +18,13 @@ import alluxio.underfs.UnderFileSystem;
 import alluxio.underfs.UnderFileSystemConfiguration;
 import alluxio.underfs.options.OpenOptions;
 import alluxio.util.CommonUtils;
+import alluxio.util.FormatUtils;
 import alluxio.util.UnderFileSystemUtils;
 import alluxio.util.io.PathUtils;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.jets3t.service.Jets3tProperties;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.ServiceException;
@@ -41,7 +44,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
@@ -71,6 +81,22 @@ public class S3UnderFileSystem extends ObjectUnderFileSystem {
   /** The permission mode that the account owner has to the bucket. */
   private final short mBucketMode;
 
+  /**
+   * The statuses of the objects of recent listings, so the lookups following the listing of a
+   * directory are answered without a metadata request per object.
+   */
+  private final Cache<String, ObjectStatus> mListedStatuses;
+
+  /** The content of the recent uploads of this mount, or null if uploads are not deduplicated. */
+  private final S3UploadDedupCache mDedupCache;
+
+  /**
+   * The scheduler uploading the parts of the multipart uploads, shared with the mounts with the
+   * same upload settings and acquired on first use.
+   */
+  @GuardedBy("this")
+  private S3MultipartUploadScheduler mScheduler;
+
   static {
     try {
       DIR_HASH = MessageDigest.getInstance("MD5").digest(new byte[0]);
@@ -172,6 +198,31 @@ public class S3UnderFileSystem extends ObjectUnderFileSystem {
     mBucketName = bucketName;
     mBucketMode = bucketMode;
     mAccountOwner = accountOwner;
+    mListedStatuses = CacheBuilder.newBuilder()
+        .maximumSize(Long.parseLong(
+            conf.getValue(S3PropertyKey.UNDERFS_S3_LISTING_STATUS_CACHE_SIZE)))
+        .expireAfterWrite(Long.parseLong(
+            conf.getValue(S3PropertyKey.UNDERFS_S3_LISTING_STATUS_CACHE_TTL_MS)),
+            TimeUnit.MILLISECONDS)
+        .build();
+    if (Boolean.parseBoolean(conf.getValue(S3PropertyKey.UNDERFS_S3_UPLOAD_DEDUP_ENABLED))) {
+      mDedupCache = new S3UploadDedupCache(
+          Long.parseLong(conf.getValue(S3PropertyKey.UNDERFS_S3_UPLOAD_DEDUP_CACHE_SIZE)),
+          Long.parseLong(conf.getValue(S3PropertyKey.UNDERFS_S3_UPLOAD_DEDUP_TTL_MS)));
+    } else {
+      mDedupCache = null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (mScheduler != null) {
+        S3MultipartUploadSchedulerRegistry.get().release(mScheduler);
+        mScheduler = null;
+      }
+    }
+    super.close();
   }
 
   @Override
@@ -190,6 +241,7 @@ public class S3UnderFileSystem extends ObjectUnderFileSystem {
   @Override
   protected boolean copyObject(String src, String dst) {
     LOG.debug("Copying {} to {}", src, dst);
+    mListedStatuses.invalidate(dst);
     S3Object obj = new S3Object(dst);
     // Retry copy for a few times, in case some Jets3t or AWS internal errors happened during copy.
     int retries = 3;
@@ -210,6 +262,7 @@ public class S3UnderFileSystem extends ObjectUnderFileSystem {
 
   @Override
   protected boolean createEmptyObject(String key) {
+    mListedStatuses.invalidate(key);
     try {
       S3Object obj = new S3Object(key);
       obj.setDataInputStream(new ByteArrayInputStream(new byte[0]));
@@ -226,11 +279,31 @@ public class S3UnderFileSystem extends ObjectUnderFileSystem {
 
   @Override
   protected OutputStream createObject(String key) throws IOException {
-    return new S3OutputStream(mBucketName, key, mClient);
+    mListedStatuses.invalidate(key);
+    return new S3OutputStream(mBucketName, key, mClient, getScheduler(),
+        FormatUtils.parseSpaceSize(
+            mUfsConf.getValue(S3PropertyKey.UNDERFS_S3_MULTIPART_UPLOAD_PART_SIZE_MIN)),
+        mDedupCache, Arrays.asList(mUfsConf.getValue(PropertyKey.TMP_DIRS).split(",")));
+  }
+
+  /**
+   * @return the scheduler uploading the parts of the multipart uploads of this mount
+   */
+  private synchronized S3MultipartUploadScheduler getScheduler() {
+    if (mScheduler == null) {
+      mScheduler = S3MultipartUploadSchedulerRegistry.get().acquire(
+          Integer.parseInt(mUfsConf.getValue(PropertyKey.UNDERFS_S3_UPLOAD_THREADS_MAX)),
+          FormatUtils.parseSpaceSize(
+              mUfsConf.getValue(S3PropertyKey.UNDERFS_S3_MULTIPART_UPLOAD_BYTES_MAX)),
+          Integer.parseInt(
+              mUfsConf.getValue(S3PropertyKey.UNDERFS_S3_MULTIPART_UPLOAD_PART_RETRIES)));
+    }
+    return mScheduler;
   }
 
   @Override
   protected boolean deleteObject(String key) {
+    mListedStatuses.invalidate(key);
     try {
       mClient.deleteObject(mBucketName, key);
     } catch (ServiceException e) {
@@ -291,8 +364,8 @@ public class S3UnderFileSystem extends ObjectUnderFileSystem {
       StorageObject[] objects = mChunk.getObjects();
       ObjectStatus[] ret = new ObjectStatus[objects.length];
       for (int i = 0; i < ret.length; ++i) {
-        ret[i] = new ObjectStatus(objects[i].getKey(), objects[i].getETag(),
-            objects[i].getContentLength(), objects[i].getLastModifiedDate().getTime());
+        ret[i] = toObjectStatus(objects[i]);
+        mListedStatuses.put(objects[i].getKey(), ret[i]);
       }
       return ret;
     }
@@ -318,6 +391,10 @@ public class S3UnderFileSystem extends ObjectUnderFileSystem {
 
   @Override
   protected ObjectStatus getObjectStatus(String key) {
+    ObjectStatus listed = mListedStatuses.getIfPresent(key);
+    if (listed != null) {
+      return listed;
+    }
     try {
       StorageObject meta = mClient.getObjectDetails(mBucketName, key);
       if (meta == null) {
@@ -330,6 +407,76 @@ public class S3UnderFileSystem extends ObjectUnderFileSystem {
     }
   }
 
+  /**
+   * Gets the status of several objects under a common prefix. The objects are resolved from
+   * the statuses of recent listings, then from listing pages of the prefix instead of one
+   * metadata request per key, and listing stops as soon as every key was found or the listing
+   * went past the last requested key. Keys which are not under the prefix are looked up
+   * individually. The listed statuses serve the later lookups of the listed objects.
+   *
+   * @param prefix the common prefix of the keys, typically the key of their parent directory
+   * @param keys the keys to look up
+   * @return the status of each key that exists, keyed by object key
+   */
+  protected Map<String, ObjectStatus> getObjectStatuses(String prefix, Collection<String> keys) {
+    prefix = PathUtils.normalizePath(prefix, PATH_SEPARATOR);
+    // In case key is root (empty string) do not normalize prefix
+    prefix = prefix.equals(PATH_SEPARATOR) ? "" : prefix;
+    Map<String, ObjectStatus> statuses = new HashMap<>();
+    TreeSet<String> remaining = new TreeSet<>();
+    boolean recursive = false;
+    for (String key : keys) {
+      ObjectStatus listed = mListedStatuses.getIfPresent(key);
+      if (listed != null) {
+        statuses.put(key, listed);
+      } else if (key.startsWith(prefix) && key.length() > prefix.length()) {
+        remaining.add(key);
+        recursive |= key.indexOf(PATH_SEPARATOR, prefix.length()) != -1;
+      } else {
+        addObjectStatus(key, statuses);
+      }
+    }
+    // Only list the whole subtree if a key is nested below a direct child of the prefix
+    String delimiter = recursive ? "" : PATH_SEPARATOR;
+    String priorLastKey = null;
+    while (!remaining.isEmpty()) {
+      StorageObjectsChunk chunk = getObjectListingChunk(prefix, delimiter, priorLastKey);
+      if (chunk == null) {
+        // Listing failed, fall back to one request per key
+        for (String key : remaining) {
+          addObjectStatus(key, statuses);
+        }
+        break;
+      }
+      for (StorageObject object : chunk.getObjects()) {
+        ObjectStatus status = toObjectStatus(object);
+        mListedStatuses.put(object.getKey(), status);
+        if (remaining.remove(object.getKey())) {
+          statuses.put(object.getKey(), status);
+        }
+      }
+      priorLastKey = chunk.getPriorLastKey();
+      if (chunk.isListingComplete() || priorLastKey == null || remaining.isEmpty()
+          || priorLastKey.compareTo(remaining.last()) >= 0) {
+        // The keys that are left were not in the listing, so they do not exist
+        break;
+      }
+    }
+    return statuses;
+  }
+
+  private void addObjectStatus(String key, Map<String, ObjectStatus> statuses) {
+    ObjectStatus status = getObjectStatus(key);
+    if (status != null) {
+      statuses.put(key, status);
+    }
+  }
+
+  private ObjectStatus toObjectStatus(StorageObject object) {
+    return new ObjectStatus(object.getKey(), object.getETag(), object.getContentLength(),
+        object.getLastModifiedDate().getTime());
+  }
+
   // No group in S3 ACL, returns the account owner for group.
   @Override
   protected ObjectPermissions getPermissions() {
@@ -343,8 +490,13 @@ public class S3UnderFileSystem extends ObjectUnderFileSystem {
 
   @Override
   protected InputStream openObject(String key, OpenOptions options) throws IOException {
+    long minRangeSize = FormatUtils.parseSpaceSize(
+        mUfsConf.getValue(S3PropertyKey.UNDERFS_S3_READ_RANGE_MIN_SIZE));
+    long maxRangeSize = FormatUtils.parseSpaceSize(
+        mUfsConf.getValue(S3PropertyKey.UNDERFS_S3_READ_RANGE_MAX_SIZE));
     try {
-      return new S3InputStream(mBucketName, key, mClient, options.getOffset());
+      return new S3InputStream(mBucketName, key, mClient, options.getOffset(), minRangeSize,
+          maxRangeSize);
     } catch (ServiceException e) {
       throw new IOException(e.getMessage());
     }
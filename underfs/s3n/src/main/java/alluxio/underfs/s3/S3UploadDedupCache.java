@@ -0,0 +1,120 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.s3;
+
+import alluxio.Constants;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.ServiceException;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.model.StorageObject;
+import org.jets3t.service.utils.ServiceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A bounded cache from the content of recently uploaded objects to their keys, used by the
+ * {@link S3OutputStream}s of a mount to avoid uploading the same content twice.
+ *
+ * When an object with the same MD5 hash and length was recently uploaded to the same bucket, the
+ * upload is replaced by a metadata request checking that the cached object is still unchanged.
+ * If the cached object has the same key, the PUT is skipped entirely, since a metadata request is
+ * cheaper than a PUT. Otherwise the upload becomes a server-side copy, which only saves anything
+ * for objects of at least {@link #MIN_COPY_SIZE} bytes.
+ */
+@ThreadSafe
+final class S3UploadDedupCache {
+  private static final Logger LOG = LoggerFactory.getLogger(S3UploadDedupCache.class);
+
+  /** Objects smaller than this are uploaded rather than copied from an identical object. */
+  static final long MIN_COPY_SIZE = 128 * Constants.KB;
+
+  /** Map from bucket, length and MD5 hash of uploaded content to the key of the object. */
+  private final Cache<String, String> mKeys;
+
+  /**
+   * Creates a new instance of {@link S3UploadDedupCache}.
+   *
+   * @param maxEntries the maximum number of uploads remembered
+   * @param ttlMs the time after which an upload is forgotten
+   */
+  S3UploadDedupCache(long maxEntries, long ttlMs) {
+    mKeys = CacheBuilder.newBuilder().maximumSize(maxEntries)
+        .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS).build();
+  }
+
+  /**
+   * Tries to create an object from an identical object uploaded recently, instead of uploading
+   * its content.
+   *
+   * @param client the JetS3t client
+   * @param bucketName the name of the bucket
+   * @param key the key of the object to create
+   * @param md5 the MD5 hash of the content
+   * @param length the length of the content
+   * @return true if the object was created, false if the content must be uploaded
+   */
+  boolean tryReuse(S3Service client, String bucketName, String key, byte[] md5, long length) {
+    String fingerprint = fingerprint(bucketName, md5, length);
+    String existingKey = mKeys.getIfPresent(fingerprint);
+    if (existingKey == null || (!existingKey.equals(key) && length < MIN_COPY_SIZE)) {
+      return false;
+    }
+    try {
+      StorageObject existing = client.getObjectDetails(bucketName, existingKey);
+      if (existing == null || existing.getContentLength() != length
+          || !ServiceUtils.toHex(md5).equals(stripQuotes(existing.getETag()))) {
+        // The cached object was overwritten or deleted since it was uploaded
+        mKeys.invalidate(fingerprint);
+        return false;
+      }
+      if (!existingKey.equals(key)) {
+        client.copyObject(bucketName, existingKey, bucketName, new S3Object(key), false);
+      }
+    } catch (ServiceException e) {
+      LOG.debug("Failed to reuse {} for {}, uploading instead", existingKey, key, e);
+      mKeys.invalidate(fingerprint);
+      return false;
+    }
+    LOG.debug("Created {} from identical object {}", key, existingKey);
+    return true;
+  }
+
+  /**
+   * Records an uploaded object.
+   *
+   * @param bucketName the name of the bucket
+   * @param key the key of the uploaded object
+   * @param md5 the MD5 hash of the content
+   * @param length the length of the content
+   */
+  void put(String bucketName, String key, byte[] md5, long length) {
+    mKeys.put(fingerprint(bucketName, md5, length), key);
+  }
+
+  private static String fingerprint(String bucketName, byte[] md5, long length) {
+    return bucketName + "/" + length + "/" + ServiceUtils.toHex(md5);
+  }
+
+  private static String stripQuotes(String etag) {
+    if (etag != null && etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")) {
+      return etag.substring(1, etag.length() - 1);
+    }
+    return etag;
+  }
+}
@@ -11,6 +11,9 @@
 
 package alluxio.underfs.s3;
 
+import alluxio.Constants;
+
+import com.google.common.base.Preconditions;
 import org.jets3t.service.acl.AccessControlList;
 import org.jets3t.service.acl.GrantAndPermission;
 import org.jets3t.service.acl.GranteeInterface;
@@ -21,6 +24,25 @@ import org.jets3t.service.acl.Permission;
  * Util functions for S3N under file system.
  */
 public final class S3Utils {
+  /** The smallest part S3 accepts in a multipart upload, except for the last part. */
+  static final long MULTIPART_MIN_PART_SIZE = 5 * Constants.MB;
+
+  /** The largest part S3 accepts in a multipart upload. */
+  static final long MULTIPART_MAX_PART_SIZE = 5L * Constants.GB;
+
+  /** The maximum number of parts of a multipart upload. */
+  static final int MULTIPART_MAX_PARTS = 10000;
+
+  /**
+   * Every part is at least this fraction of the bytes written before it. Growing by 0.2% per part,
+   * parts starting at the minimum part size reach the maximum object size of 5TB in less than
+   * 7000 parts.
+   */
+  private static final long MIN_PART_GROWTH_DIVISOR = 500;
+
+  /** The shortest time a part should take to upload, so the request overhead stays small. */
+  private static final long MIN_PART_UPLOAD_MS = 500;
+
   /**
    * Translates S3 bucket ACL to Alluxio owner mode.
    *
@@ -53,6 +75,38 @@ public final class S3Utils {
     return mode;
   }
 
+  /**
+   * Computes the size of the next part of a multipart upload whose final size is not known yet.
+   *
+   * The object is estimated to be twice the size written so far, and the estimate is spread over
+   * the available connections, so parts start small and grow with the object. Mid-size objects
+   * get many parts uploaded in parallel, while large objects get large parts. A part is never
+   * smaller than what a connection uploads in {@link #MIN_PART_UPLOAD_MS} at the observed
+   * throughput, and parts always grow fast enough for a 5TB object to fit in
+   * {@link #MULTIPART_MAX_PARTS} parts. The last part S3 accepts gets the largest size.
+   *
+   * @param bytesWritten the number of bytes written before the part
+   * @param partNumber the number of the part, from 1 to {@link #MULTIPART_MAX_PARTS}
+   * @param minPartSize the configured minimum part size
+   * @param concurrency the number of parts which can be uploaded at the same time
+   * @param throughput the observed upload throughput of a connection in bytes per second, or 0 if
+   *        unknown
+   * @return the size of the part
+   */
+  public static long computePartSize(long bytesWritten, int partNumber, long minPartSize,
+      int concurrency, long throughput) {
+    Preconditions.checkArgument(partNumber >= 1 && partNumber <= MULTIPART_MAX_PARTS,
+        "Part number %s is not between 1 and %s", partNumber, MULTIPART_MAX_PARTS);
+    if (partNumber == MULTIPART_MAX_PARTS) {
+      return MULTIPART_MAX_PART_SIZE;
+    }
+    long partSize = Math.max(minPartSize, MULTIPART_MIN_PART_SIZE);
+    partSize = Math.max(partSize, 2 * bytesWritten / Math.max(concurrency, 1));
+    partSize = Math.max(partSize, throughput * MIN_PART_UPLOAD_MS / Constants.SECOND_MS);
+    partSize = Math.max(partSize, bytesWritten / MIN_PART_GROWTH_DIVISOR);
+    return Math.min(partSize, MULTIPART_MAX_PART_SIZE);
+  }
+
   private static boolean isUserIdInGrantee(GranteeInterface grantee, String userId) {
     return grantee.getIdentifier().equals(userId)
         || grantee.equals(GroupGrantee.ALL_USERS)
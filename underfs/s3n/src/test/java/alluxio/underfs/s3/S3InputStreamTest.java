@@ -18,6 +18,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
 import org.jets3t.service.ServiceException;
 import org.jets3t.service.model.S3Object;
 import org.junit.Before;
@@ -37,6 +38,8 @@ public class S3InputStreamTest {
 
   private static final String BUCKET_NAME = "testBucket";
   private static final String OBJECT_KEY = "testObjectKey";
+  /** Larger than the buffer of {@link java.io.BufferedInputStream}. */
+  private static final int BUFFER_SIZE = 16 * 1024;
 
   private S3InputStream mS3InputStream;
   private S3Service mS3Service;
@@ -99,4 +102,75 @@ public class S3InputStreamTest {
     mS3InputStream.skip(1);
     assertEquals(3, mS3InputStream.read());
   }
+
+  /**
+   * Tests that a skip beyond the buffered data switches to ranged requests, and that the range
+   * size doubles when a range is read to its end.
+   */
+  @Test
+  public void skipSwitchesToGrowingRanges() throws IOException, ServiceException {
+    when(mS3Object.getDataInputStream()).thenReturn(httpStream(3 * BUFFER_SIZE));
+    S3InputStream stream = new S3InputStream(BUCKET_NAME, OBJECT_KEY, mS3Service, 0L,
+        BUFFER_SIZE, 4 * BUFFER_SIZE);
+    mockRange(BUFFER_SIZE + 1, BUFFER_SIZE);
+    mockRange(2 * BUFFER_SIZE + 1, 2 * BUFFER_SIZE);
+
+    assertEquals(0, stream.read());
+    assertEquals(BUFFER_SIZE, stream.skip(BUFFER_SIZE));
+    byte[] bytes = new byte[BUFFER_SIZE + 1];
+    int read = 0;
+    while (read < bytes.length) {
+      read += stream.read(bytes, read, bytes.length - read);
+    }
+    verify(mS3Service).getObject(BUCKET_NAME, OBJECT_KEY, null, null, null, null,
+        (long) BUFFER_SIZE + 1, (long) 2 * BUFFER_SIZE);
+    verify(mS3Service).getObject(BUCKET_NAME, OBJECT_KEY, null, null, null, null,
+        (long) 2 * BUFFER_SIZE + 1, (long) 4 * BUFFER_SIZE);
+  }
+
+  /**
+   * Tests that a skip which reaches the end of the open range before the requested number of
+   * bytes returns the total number of bytes skipped.
+   */
+  @Test
+  public void skipPastEndOfRange() throws IOException, ServiceException {
+    when(mS3Object.getDataInputStream()).thenReturn(httpStream(3 * BUFFER_SIZE));
+    S3InputStream stream = new S3InputStream(BUCKET_NAME, OBJECT_KEY, mS3Service, 0L,
+        BUFFER_SIZE, 4 * BUFFER_SIZE);
+    // The object ends 5 bytes into the range
+    S3Object object = Mockito.mock(S3Object.class);
+    when(object.getDataInputStream()).thenReturn(httpStream(5));
+    when(mS3Service.getObject(BUCKET_NAME, OBJECT_KEY, null, null, null, null,
+        (long) BUFFER_SIZE + 1, (long) 2 * BUFFER_SIZE)).thenReturn(object);
+    S3ServiceException notSatisfiable = Mockito.mock(S3ServiceException.class);
+    when(notSatisfiable.getResponseCode()).thenReturn(416);
+    when(mS3Service.getObject(BUCKET_NAME, OBJECT_KEY, null, null, null, null,
+        (long) BUFFER_SIZE + 11, (long) 2 * BUFFER_SIZE + 10)).thenThrow(notSatisfiable);
+
+    assertEquals(0, stream.read());
+    assertEquals(BUFFER_SIZE, stream.skip(BUFFER_SIZE));
+    assertEquals(10, stream.skip(10));
+    assertEquals(-1, stream.read());
+  }
+
+  private void mockRange(long start, int length) throws ServiceException {
+    S3Object object = Mockito.mock(S3Object.class);
+    when(object.getDataInputStream()).thenReturn(httpStream(length));
+    when(mS3Service.getObject(BUCKET_NAME, OBJECT_KEY, null, null, null, null, start,
+        start + length - 1)).thenReturn(object);
+  }
+
+  /**
+   * @param length the number of bytes of the stream
+   * @return a stream which, like the body of an HTTP response, does not report its bytes as
+   *         available
+   */
+  private static InputStream httpStream(int length) {
+    return new ByteArrayInputStream(new byte[length]) {
+      @Override
+      public synchronized int available() {
+        return 0;
+      }
+    };
+  }
 }
@@ -0,0 +1,46 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.s3;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link S3MultipartUploadSchedulerRegistry}.
+ */
+public class S3MultipartUploadSchedulerRegistryTest {
+
+  /**
+   * Tests that users with the same settings share a scheduler until the last one releases it,
+   * and that users with other settings get a scheduler of their own.
+   */
+  @Test
+  public void shareBySettings() {
+    S3MultipartUploadSchedulerRegistry registry = new S3MultipartUploadSchedulerRegistry();
+    S3MultipartUploadScheduler first = registry.acquire(2, 100, 1);
+    S3MultipartUploadScheduler second = registry.acquire(2, 100, 1);
+    S3MultipartUploadScheduler other = registry.acquire(4, 100, 1);
+    assertSame(first, second);
+    assertNotSame(first, other);
+
+    registry.release(first);
+    assertSame(first, registry.acquire(2, 100, 1));
+    registry.release(first);
+    registry.release(second);
+    registry.release(other);
+    S3MultipartUploadScheduler recreated = registry.acquire(2, 100, 1);
+    assertNotSame(first, recreated);
+    registry.release(recreated);
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.ServiceException;
+import org.jets3t.service.model.MultipartPart;
+import org.jets3t.service.model.MultipartUpload;
+import org.jets3t.service.model.S3Object;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Unit tests for the {@link S3MultipartUploadScheduler}.
+ */
+public class S3MultipartUploadSchedulerTest {
+  private static final String BUCKET_NAME = "bucket";
+  private static final String KEY = "key";
+
+  private S3Service mClient;
+  private S3MultipartUploadScheduler mScheduler;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  /**
+   * Set up.
+   */
+  @Before
+  public void before() throws ServiceException {
+    mClient = Mockito.mock(S3Service.class);
+    Mockito.when(mClient.multipartStartUpload(Matchers.eq(BUCKET_NAME),
+        Matchers.any(S3Object.class))).thenReturn(new MultipartUpload("id", BUCKET_NAME, KEY));
+    mScheduler = new S3MultipartUploadScheduler(2, 1, 1);
+  }
+
+  /**
+   * Stops the scheduler.
+   */
+  @After
+  public void after() {
+    mScheduler.close();
+  }
+
+  /**
+   * Tests that the parts are uploaded and the upload is completed with the parts in order.
+   */
+  @Test
+  public void complete() throws Exception {
+    Mockito.when(mClient.multipartUploadPart(Matchers.any(MultipartUpload.class),
+        Matchers.anyInt(), Matchers.any(S3Object.class))).thenAnswer(new PartAnswer());
+    S3MultipartUploadScheduler.Upload upload = mScheduler.start(mClient, BUCKET_NAME, KEY);
+    File[] files = new File[3];
+    for (int i = 0; i < files.length; i++) {
+      files[i] = mFolder.newFile();
+      mScheduler.submit(upload, i + 1, files[i], null);
+    }
+    mScheduler.complete(upload);
+
+    ArgumentCaptor<List> parts = ArgumentCaptor.forClass(List.class);
+    Mockito.verify(mClient).multipartCompleteUpload(Matchers.any(MultipartUpload.class),
+        parts.capture());
+    assertEquals(3, parts.getValue().size());
+    for (int i = 0; i < files.length; i++) {
+      assertEquals(i + 1, ((MultipartPart) parts.getValue().get(i)).getPartNumber().intValue());
+      assertFalse(files[i].exists());
+    }
+  }
+
+  /**
+   * Tests that a part which failed once is retried, and the upload completes.
+   */
+  @Test
+  public void completeWithRetriedPart() throws Exception {
+    Mockito.when(mClient.multipartUploadPart(Matchers.any(MultipartUpload.class),
+        Matchers.anyInt(), Matchers.any(S3Object.class)))
+        .thenThrow(new S3ServiceException("failed"))
+        .thenAnswer(new PartAnswer());
+    S3MultipartUploadScheduler.Upload upload = mScheduler.start(mClient, BUCKET_NAME, KEY);
+    mScheduler.submit(upload, 1, mFolder.newFile(), null);
+    mScheduler.complete(upload);
+
+    Mockito.verify(mClient, Mockito.times(2)).multipartUploadPart(
+        Matchers.any(MultipartUpload.class), Matchers.anyInt(), Matchers.any(S3Object.class));
+    Mockito.verify(mClient).multipartCompleteUpload(Matchers.any(MultipartUpload.class),
+        Matchers.anyList());
+    Mockito.verify(mClient, Mockito.never()).multipartAbortUpload(
+        Matchers.any(MultipartUpload.class));
+  }
+
+  /**
+   * Tests that submitting a part waits while the parts queued or being uploaded use up the byte
+   * budget.
+   */
+  @Test
+  public void submitWaitsForBudget() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    Mockito.when(mClient.multipartUploadPart(Matchers.any(MultipartUpload.class),
+        Matchers.anyInt(), Matchers.any(S3Object.class))).thenAnswer(new Answer<MultipartPart>() {
+          @Override
+          public MultipartPart answer(InvocationOnMock invocation) {
+            Uninterruptibles.awaitUninterruptibly(release);
+            return new PartAnswer().answer(invocation);
+          }
+        });
+    final S3MultipartUploadScheduler.Upload upload =
+        mScheduler.start(mClient, BUCKET_NAME, KEY);
+    mScheduler.submit(upload, 1, newFile(1), null);
+
+    final File second = newFile(1);
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    try {
+      Future<Void> submitted = writer.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          mScheduler.submit(upload, 2, second, null);
+          return null;
+        }
+      });
+      try {
+        submitted.get(100, TimeUnit.MILLISECONDS);
+        fail("Submitting a part should wait for the budget");
+      } catch (TimeoutException e) {
+        // expected
+      }
+      assertTrue(second.exists());
+
+      release.countDown();
+      submitted.get();
+      mScheduler.complete(upload);
+    } finally {
+      writer.shutdownNow();
+    }
+    assertFalse(second.exists());
+  }
+
+  /**
+   * Tests that a failed part aborts the upload.
+   */
+  @Test
+  public void completeWithFailedPart() throws Exception {
+    Mockito.when(mClient.multipartUploadPart(Matchers.any(MultipartUpload.class),
+        Matchers.anyInt(), Matchers.any(S3Object.class)))
+        .thenThrow(new S3ServiceException("failed"));
+    S3MultipartUploadScheduler.Upload upload = mScheduler.start(mClient, BUCKET_NAME, KEY);
+    mScheduler.submit(upload, 1, mFolder.newFile(), null);
+
+    try {
+      mScheduler.complete(upload);
+      fail("Completing an upload with a failed part should fail");
+    } catch (IOException e) {
+      // expected
+    }
+    Mockito.verify(mClient, Mockito.times(2)).multipartUploadPart(
+        Matchers.any(MultipartUpload.class), Matchers.anyInt(), Matchers.any(S3Object.class));
+    Mockito.verify(mClient).multipartAbortUpload(Matchers.any(MultipartUpload.class));
+  }
+
+  private File newFile(int length) throws IOException {
+    File file = mFolder.newFile();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[length]);
+    }
+    return file;
+  }
+
+  /**
+   * Answers a part upload with an uploaded part.
+   */
+  private static final class PartAnswer implements Answer<MultipartPart> {
+    @Override
+    public MultipartPart answer(InvocationOnMock invocation) {
+      Integer partNumber = (Integer) invocation.getArguments()[1];
+      return new MultipartPart(partNumber, new Date(), "etag" + partNumber, 1L);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.s3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import alluxio.Constants;
+
+import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.ServiceException;
+import org.jets3t.service.model.MultipartUpload;
+import org.jets3t.service.model.S3Object;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Unit tests for the {@link S3OutputStream}.
+ */
+public class S3OutputStreamTest {
+  private static final String BUCKET_NAME = "bucket";
+  private static final String KEY = "key";
+
+  private S3Service mClient;
+  private S3MultipartUploadScheduler mScheduler;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+
+  /**
+   * Set up.
+   */
+  @Before
+  public void before() throws ServiceException {
+    mClient = Mockito.mock(S3Service.class);
+    Mockito.when(mClient.multipartStartUpload(Matchers.eq(BUCKET_NAME),
+        Matchers.any(S3Object.class))).thenReturn(new MultipartUpload("id", BUCKET_NAME, KEY));
+    mScheduler = new S3MultipartUploadScheduler(1, 1, 0);
+  }
+
+  /**
+   * Stops the scheduler.
+   */
+  @After
+  public void after() {
+    mScheduler.close();
+  }
+
+  /**
+   * Tests that a failed part aborts the multipart upload, fails the following writes and the
+   * close, and leaves no staged part behind.
+   */
+  @Test
+  public void writeWithFailedPart() throws Exception {
+    Mockito.when(mClient.multipartUploadPart(Matchers.any(MultipartUpload.class),
+        Matchers.anyInt(), Matchers.any(S3Object.class)))
+        .thenThrow(new S3ServiceException("failed"));
+    S3OutputStream stream = new S3OutputStream(BUCKET_NAME, KEY, mClient, mScheduler,
+        S3Utils.MULTIPART_MIN_PART_SIZE, null,
+        Collections.singletonList(mFolder.getRoot().getAbsolutePath()));
+
+    byte[] chunk = new byte[Constants.MB];
+    try {
+      // The second part waits for the first one, whose failure aborts the upload
+      for (int i = 0; i < 100; i++) {
+        stream.write(chunk);
+      }
+      fail("Writing should fail once a part failed");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      stream.write(chunk);
+      fail("Writing to an aborted upload should fail");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      stream.close();
+      fail("Closing an aborted upload should fail");
+    } catch (IOException e) {
+      // expected
+    }
+
+    Mockito.verify(mClient).multipartAbortUpload(Matchers.any(MultipartUpload.class));
+    Mockito.verify(mClient, Mockito.never()).multipartCompleteUpload(
+        Matchers.any(MultipartUpload.class), Matchers.anyList());
+    assertEquals(0, mFolder.getRoot().list().length);
+  }
+}
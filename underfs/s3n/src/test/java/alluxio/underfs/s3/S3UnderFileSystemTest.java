@@ -17,13 +17,21 @@ import alluxio.underfs.options.DeleteOptions;
 
 import org.jets3t.service.S3Service;
 import org.jets3t.service.ServiceException;
+import org.jets3t.service.StorageObjectsChunk;
+import org.jets3t.service.model.StorageObject;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
 
 /**
  * Unit tests for the {@link S3UnderFileSystem}.
@@ -92,4 +100,58 @@ public class S3UnderFileSystemTest {
     boolean result = mS3UnderFileSystem.renameFile(SRC, DST);
     Assert.assertFalse(result);
   }
+
+  /**
+   * Test case for {@link S3UnderFileSystem#getObjectStatuses(String, Collection)}.
+   */
+  @Test
+  public void getObjectStatusesFromListing() throws ServiceException {
+    StorageObject[] objects = new StorageObject[] {createObject("dir/a"), createObject("dir/b"),
+        createObject("dir/c")};
+    Mockito.when(mClient.listObjectsChunked(Matchers.eq(BUCKET_NAME), Matchers.eq("dir/"),
+        Matchers.eq("/"), Matchers.anyLong(), Matchers.anyString()))
+        .thenReturn(new StorageObjectsChunk("dir/", "/", objects, new String[0], null));
+
+    Map<String, ?> statuses =
+        mS3UnderFileSystem.getObjectStatuses("dir", Arrays.asList("dir/a", "dir/c", "dir/d"));
+    Assert.assertEquals(new HashSet<>(Arrays.asList("dir/a", "dir/c")), statuses.keySet());
+    Mockito.verify(mClient, Mockito.never()).getObjectDetails(Matchers.anyString(),
+        Matchers.anyString());
+  }
+
+  /**
+   * Test case for {@link S3UnderFileSystem#getFileStatus(String)} of an object listed by
+   * {@link S3UnderFileSystem#listStatus(String)}.
+   */
+  @Test
+  public void getFileStatusOfListedObject() throws IOException, ServiceException {
+    StorageObject[] objects = new StorageObject[] {createObject("dir/a"), createObject("dir/b")};
+    Mockito.when(mClient.listObjectsChunked(Matchers.eq(BUCKET_NAME), Matchers.eq("dir/"),
+        Matchers.eq("/"), Matchers.anyLong(), Matchers.anyString()))
+        .thenReturn(new StorageObjectsChunk("dir/", "/", objects, new String[0], null));
+
+    Assert.assertEquals(2, mS3UnderFileSystem.listStatus("dir").length);
+    Assert.assertEquals(1L, mS3UnderFileSystem.getFileStatus("dir/a").getContentLength());
+    Assert.assertEquals(1L, mS3UnderFileSystem.getFileStatus("dir/b").getContentLength());
+    Mockito.verify(mClient, Mockito.never()).getObjectDetails(Matchers.anyString(),
+        Matchers.anyString());
+
+    // A deleted object is looked up again
+    mS3UnderFileSystem.deleteFile("dir/a");
+    try {
+      mS3UnderFileSystem.getFileStatus("dir/a");
+      Assert.fail("The deleted object should not be found");
+    } catch (FileNotFoundException e) {
+      // expected
+    }
+    Mockito.verify(mClient).getObjectDetails(BUCKET_NAME, "dir/a");
+  }
+
+  private static StorageObject createObject(String key) {
+    StorageObject object = new StorageObject(key);
+    object.setETag("etag");
+    object.setContentLength(1L);
+    object.setLastModifiedDate(new Date());
+    return object;
+  }
 }
@@ -0,0 +1,103 @@
+/*
+ * The Alluxio Open Foundation licenses this work under the Apache License, version 2.0
+ * (the "License"). You may not use this work except in compliance with the License, which is
+ * available at www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" basis, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied, as more fully set forth in the License.
+ *
+ * See the NOTICE file distributed with this work for information regarding copyright ownership.
+ */
+
+package alluxio.underfs.s3;
+
+import org.jets3t.service.S3Service;
+import org.jets3t.service.ServiceException;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.utils.ServiceUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+/**
+ * Unit tests for the {@link S3UploadDedupCache}.
+ */
+public class S3UploadDedupCacheTest {
+  private static final String BUCKET_NAME = "bucket";
+  private static final String KEY = "key";
+  private static final String OTHER_KEY = "other";
+  private static final byte[] MD5 = new byte[] {1, 2, 3, 4};
+
+  private S3Service mClient;
+  private S3UploadDedupCache mCache;
+
+  /**
+   * Set up.
+   */
+  @Before
+  public void before() {
+    mClient = Mockito.mock(S3Service.class);
+    mCache = new S3UploadDedupCache(100, 60000);
+  }
+
+  /**
+   * Tests that rewriting identical content to the same key skips the upload.
+   */
+  @Test
+  public void reuseSameKey() throws ServiceException {
+    mockExisting(KEY, ServiceUtils.toHex(MD5), 1L);
+    mCache.put(BUCKET_NAME, KEY, MD5, 1L);
+
+    Assert.assertTrue(mCache.tryReuse(mClient, BUCKET_NAME, KEY, MD5, 1L));
+    Mockito.verify(mClient, Mockito.never()).copyObject(Matchers.anyString(),
+        Matchers.anyString(), Matchers.anyString(), Matchers.any(S3Object.class),
+        Matchers.anyBoolean());
+  }
+
+  /**
+   * Tests that identical content under another key is copied on the server side.
+   */
+  @Test
+  public void reuseOtherKey() throws ServiceException {
+    long length = S3UploadDedupCache.MIN_COPY_SIZE;
+    mockExisting(OTHER_KEY, ServiceUtils.toHex(MD5), length);
+    mCache.put(BUCKET_NAME, OTHER_KEY, MD5, length);
+
+    Assert.assertTrue(mCache.tryReuse(mClient, BUCKET_NAME, KEY, MD5, length));
+    Mockito.verify(mClient).copyObject(Matchers.eq(BUCKET_NAME), Matchers.eq(OTHER_KEY),
+        Matchers.eq(BUCKET_NAME), Matchers.any(S3Object.class), Matchers.eq(false));
+  }
+
+  /**
+   * Tests that small objects are not copied from identical content under another key.
+   */
+  @Test
+  public void noCopyForSmallObjects() throws ServiceException {
+    mockExisting(OTHER_KEY, ServiceUtils.toHex(MD5), 1L);
+    mCache.put(BUCKET_NAME, OTHER_KEY, MD5, 1L);
+
+    Assert.assertFalse(mCache.tryReuse(mClient, BUCKET_NAME, KEY, MD5, 1L));
+  }
+
+  /**
+   * Tests that an object changed since it was uploaded is not reused.
+   */
+  @Test
+  public void noReuseOfChangedObject() throws ServiceException {
+    mockExisting(KEY, "changed", 1L);
+    mCache.put(BUCKET_NAME, KEY, MD5, 1L);
+
+    Assert.assertFalse(mCache.tryReuse(mClient, BUCKET_NAME, KEY, MD5, 1L));
+    Assert.assertFalse(mCache.tryReuse(mClient, BUCKET_NAME, KEY, MD5, 1L));
+    Mockito.verify(mClient).getObjectDetails(BUCKET_NAME, KEY);
+  }
+
+  private void mockExisting(String key, String etag, long length) throws ServiceException {
+    S3Object object = new S3Object(key);
+    object.setETag(etag);
+    object.setContentLength(length);
+    Mockito.when(mClient.getObjectDetails(BUCKET_NAME, key)).thenReturn(object);
+  }
+}
@@ -11,6 +11,8 @@
 
 package alluxio.underfs.s3;
 
+import alluxio.Constants;
+
 import org.jets3t.service.acl.AccessControlList;
 import org.jets3t.service.acl.CanonicalGrantee;
 import org.jets3t.service.acl.GroupGrantee;
@@ -115,4 +117,50 @@ public final class S3UtilsTest {
     Assert.assertEquals((short) 0700, S3Utils.translateBucketAcl(mAcl, ID));
     Assert.assertEquals((short) 0700, S3Utils.translateBucketAcl(mAcl, OTHER_ID));
   }
+
+  @Test
+  public void computePartSizeForSmallUploads() {
+    Assert.assertEquals(16 * Constants.MB,
+        S3Utils.computePartSize(0, 1, 16 * Constants.MB, 20, 0));
+    Assert.assertEquals(S3Utils.MULTIPART_MIN_PART_SIZE,
+        S3Utils.computePartSize(0, 1, Constants.MB, 20, 0));
+  }
+
+  @Test
+  public void computePartSizeGrowsWithUpload() {
+    Assert.assertEquals(100 * Constants.MB,
+        S3Utils.computePartSize(1000L * Constants.MB, 10, 16 * Constants.MB, 20, 0));
+    Assert.assertEquals(S3Utils.MULTIPART_MAX_PART_SIZE,
+        S3Utils.computePartSize(Constants.TB, 100, 16 * Constants.MB, 20, 0));
+  }
+
+  @Test
+  public void computePartSizeFromThroughput() {
+    Assert.assertEquals(50 * Constants.MB,
+        S3Utils.computePartSize(0, 1, 16 * Constants.MB, 20, 100 * Constants.MB));
+  }
+
+  @Test
+  public void computePartSizeFitsMaxObjectSize() {
+    long written = 0;
+    int partNumber = 1;
+    while (written < 5 * Constants.TB) {
+      written += S3Utils.computePartSize(written, partNumber, 0, Integer.MAX_VALUE, 0);
+      partNumber++;
+    }
+    Assert.assertTrue(partNumber <= S3Utils.MULTIPART_MAX_PARTS);
+  }
+
+  @Test
+  public void computePartSizeOfLastPart() {
+    Assert.assertEquals(S3Utils.MULTIPART_MAX_PART_SIZE, S3Utils.computePartSize(Constants.GB,
+        S3Utils.MULTIPART_MAX_PARTS, 16 * Constants.MB, 20, 0));
+    try {
+      S3Utils.computePartSize(Constants.GB, S3Utils.MULTIPART_MAX_PARTS + 1, 16 * Constants.MB,
+          20, 0);
+      Assert.fail("S3 does not accept more parts");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
 }